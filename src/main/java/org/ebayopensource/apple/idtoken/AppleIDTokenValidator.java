@@ -1,20 +1,26 @@
 package org.ebayopensource.apple.idtoken;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import io.jsonwebtoken.ExpiredJwtException;
-import io.jsonwebtoken.UnsupportedJwtException;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.SignatureException;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
+import org.ebayopensource.apple.idtoken.cache.RejectedTokenCache;
+import org.ebayopensource.apple.idtoken.cache.VerifiedTokenCache;
+import org.ebayopensource.apple.idtoken.entities.AppleIDTokenHeader;
 import org.ebayopensource.apple.idtoken.entities.AppleUserInfo;
+import org.ebayopensource.apple.idtoken.metrics.ValidationMetrics;
 import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
 import org.ebayopensource.apple.idtoken.util.IDTokenException;
 
-import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /************************************************************************
@@ -35,60 +41,449 @@ import java.util.List;
  **************************************************************************/
 public class AppleIDTokenValidator {
 
-    private static final String SEPARATOR_PERIOD = "\\.";
-    private static final int ID_TOKEN_PARTS = 3;
-    private static final String APPLE_ISSUER = "https://appleid.apple.com";
+    private static final int DEFAULT_MAX_ID_TOKEN_LENGTH = 8192;
 
-    private static List<PublicKey> applePublicKeys = null;
-    private ApplePublicKeysManager applePublicKeysManager;
+    /** Issuers whose tokens are accepted, each with the policy its tokens are checked against and its keys. */
+    private final IssuerRegistry issuerRegistry;
+
+    /** Optional cache of tokens whose signature has already been verified. */
+    private VerifiedTokenCache verifiedTokenCache;
+
+    /** Optional cache of tokens whose signature verification failed. */
+    private RejectedTokenCache rejectedTokenCache;
+
+    /** Tokens longer than this are rejected before any decoding. */
+    private int maxIDTokenLength = DEFAULT_MAX_ID_TOKEN_LENGTH;
+
+    /** Outcomes of the verifications, and time spent parsing, checking claims and verifying signatures. */
+    private final ValidationMetrics metrics = new ValidationMetrics();
 
     public AppleIDTokenValidator() {
-        applePublicKeysManager = ApplePublicKeysManager.getApplePublicKeysManager();
+        this(AppleTokenPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a validator bound to the given policy.
+     * @param tokenPolicy issuer, audiences, algorithms and clock skew checked on every token
+     */
+    public AppleIDTokenValidator(AppleTokenPolicy tokenPolicy) {
+        this(IssuerRegistry.builder().addApple(tokenPolicy).build());
+    }
+
+    /**
+     * Creates a validator checking Apple's tokens against the keys of the given manager instead of the singleton's.
+     * @param keysManager manager of Apple's public keys, e.g. one created by ApplePublicKeysManager.builder()
+     */
+    public AppleIDTokenValidator(ApplePublicKeysManager keysManager) {
+        this(AppleTokenPolicy.DEFAULT, keysManager);
+    }
+
+    /**
+     * Creates a validator bound to the given policy, checking signatures against the keys of the given manager.
+     * @param tokenPolicy issuer, audiences, algorithms and clock skew checked on every token
+     * @param keysManager manager of the issuer's public keys
+     */
+    public AppleIDTokenValidator(AppleTokenPolicy tokenPolicy, ApplePublicKeysManager keysManager) {
+        this(IssuerRegistry.builder().addIssuer(tokenPolicy, keysManager).build());
+    }
+
+    /**
+     * Creates a validator accepting tokens of several issuers. Each token is routed by its iss claim to the
+     * policy and keys of its issuer; tokens of any other issuer are rejected.
+     * @param issuerRegistry issuers whose tokens are accepted
+     */
+    public AppleIDTokenValidator(IssuerRegistry issuerRegistry) {
+        if (issuerRegistry == null) {
+            throw new IllegalArgumentException("issuerRegistry must not be null");
+        }
+        this.issuerRegistry = issuerRegistry;
+    }
+
+    /** Returns the policy of the validator's default issuer, Apple unless built from another registry. */
+    public AppleTokenPolicy getTokenPolicy() {
+        return issuerRegistry.getDefaultIssuer().getTokenPolicy();
+    }
+
+    public IssuerRegistry getIssuerRegistry() {
+        return issuerRegistry;
+    }
+
+    public VerifiedTokenCache getVerifiedTokenCache() {
+        return verifiedTokenCache;
+    }
+
+    /**
+     * Set the cache used to skip signature verification of tokens already verified by this validator.
+     * Claims are still checked against client ids and nonce on every call.
+     * @param verifiedTokenCache cache of verified tokens, or null to disable caching
+     * @return AppleIDTokenValidator object after setting the cache
+     */
+    public AppleIDTokenValidator setVerifiedTokenCache(VerifiedTokenCache verifiedTokenCache) {
+        this.verifiedTokenCache = verifiedTokenCache;
+        return this;
+    }
+
+    public RejectedTokenCache getRejectedTokenCache() {
+        return rejectedTokenCache;
+    }
+
+    /**
+     * Set the cache used to reject, without any signature verification or key refresh, tokens whose
+     * signature verification already failed.
+     * @param rejectedTokenCache cache of rejected tokens, or null to disable caching
+     * @return AppleIDTokenValidator object after setting the cache
+     */
+    public AppleIDTokenValidator setRejectedTokenCache(RejectedTokenCache rejectedTokenCache) {
+        this.rejectedTokenCache = rejectedTokenCache;
+        return this;
+    }
+
+    /**
+     * Returns the outcomes of this validator's verifications per IDTokenErrorEnum, and the time they spent parsing
+     * tokens, checking claims and verifying signatures. Key cache and refresh metrics are kept by each issuer's
+     * ApplePublicKeysManager.
+     */
+    public ValidationMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    public int getMaxIDTokenLength() {
+        return maxIDTokenLength;
+    }
+
+    /**
+     * Set the maximum length of an ID token. Longer tokens are rejected before being decoded.
+     * @param maxIDTokenLength maximum number of characters, defaults to 8192
+     * @return AppleIDTokenValidator object after setting the maximum length
+     */
+    public AppleIDTokenValidator setMaxIDTokenLength(int maxIDTokenLength) {
+        this.maxIDTokenLength = maxIDTokenLength;
+        return this;
+    }
+
+    /**
+     * Function that verifies ID token's signature and content against the audiences of the validator's
+     * policy and nonce.
+     *
+     * @see #verifyAppleIDToken(String, List, String)
+     */
+    public boolean verifyAppleIDToken(String idToken, String nonce) throws IDTokenException {
+        return verifyAppleIDToken(idToken, null, nonce);
     }
 
     /**
      * Function that verifies ID token's signature and content against client ids and nonce.
      *
      * @param idToken Input ID token
-     * @param clientIds Client Ids to validate against
+     * @param clientIds Client Ids to validate against, or null to use the audiences of the validator's policy
      * @param nonce Nonce to validate against
      * @return true/false based on validation
      * @throws IDTokenException
      */
     public boolean verifyAppleIDToken(String idToken, List<String> clientIds, String nonce) throws IDTokenException {
+        ValidationResult result = validate(idToken, clientIds, nonce);
+        if (result.isExceptional()) {
+            throw new IDTokenException(result.getErrorEnum());
+        }
+        return result.isValid();
+    }
+
+    /**
+     * Function that validates ID token's signature and content against the audiences of the validator's
+     * policy and nonce.
+     *
+     * @see #validate(String, List, String)
+     */
+    public ValidationResult validate(String idToken, String nonce) {
+        return validate(idToken, null, nonce);
+    }
+
+    /**
+     * Function that validates ID token's signature and content against client ids and nonce.
+     * Unlike verifyAppleIDToken, it never throws: every rejection, including an expired token or a failure
+     * to fetch Apple public keys, is reported through the result's IDTokenErrorEnum. Results of rejected
+     * tokens are shared instances, so a rejection neither allocates nor fills in a stack trace.
+     *
+     * @param idToken Input ID token
+     * @param clientIds Client Ids to validate against, or null to use the audiences of the validator's policy
+     * @param nonce Nonce to validate against
+     * @return ValidationResult carrying the AppleUserInfo of a valid token, or the reason it was rejected
+     */
+    public ValidationResult validate(String idToken, List<String> clientIds, String nonce) {
+        return recordOutcome(validateToken(idToken, clientIds, nonce));
+    }
 
-        if(isValidIDToken(idToken) && verifyTokenPayload(extractAppleUserinfoFromIDToken(idToken), clientIds, nonce)) {
-            if (applePublicKeys == null) {
-                applePublicKeys = applePublicKeysManager.getApplePublicKeys();
+    private ValidationResult validateToken(String idToken, List<String> clientIds, String nonce) {
+        IDTokenErrorEnum rejection = getCachedRejection(idToken);
+        if (rejection != null) {
+            return ValidationResult.failure(rejection);
+        }
+        final ParsedAppleIDToken parsedIDToken = parseIDToken(idToken);
+        final TrustedIssuer issuer = resolveIssuer(parsedIDToken);
+        ValidationResult failure = checkToken(parsedIDToken, issuer, clientIds, nonce, System.currentTimeMillis());
+        if (failure != null) {
+            return failure;
+        }
+        try {
+            if (verifyWithCache(parsedIDToken, () -> verifySignatureWithIssuerKey(parsedIDToken, issuer))) {
+                return ValidationResult.success(parsedIDToken.getUserInfo());
             }
-            for (PublicKey publicKey : applePublicKeys) {
-                if (verifySignature(idToken, publicKey)) {
-                    return true;
-                } else {
-                    applePublicKeys = applePublicKeysManager.getApplePublicKeys();
+            return ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+        } catch (IDTokenException e) {
+            return ValidationResult.exceptionalFailure(e.getErrorEnum());
+        }
+    }
+
+    /**
+     * Function that verifies a batch of ID tokens against the audiences of the validator's policy, spreading
+     * signature verification across the common fork-join pool.
+     *
+     * @see #verifyAppleIDTokens(List, List, Executor)
+     */
+    public List<ValidationResult> verifyAppleIDTokens(List<String> idTokens) {
+        return verifyAppleIDTokens(idTokens, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Function that verifies a batch of ID tokens against client ids, spreading signature verification
+     * across the common fork-join pool.
+     *
+     * @see #verifyAppleIDTokens(List, List, Executor)
+     */
+    public List<ValidationResult> verifyAppleIDTokens(List<String> idTokens, List<String> clientIds) {
+        return verifyAppleIDTokens(idTokens, clientIds, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Function that verifies a batch of ID tokens against client ids.
+     * All tokens are parsed and their claims checked first, Apple public keys are looked up once per
+     * distinct key identifier, and the remaining signature verifications run on the given executor, or on the
+     * calling thread when the executor rejects them.
+     * Nonces are not checked, as stored tokens are typically re-verified without their original nonce.
+     *
+     * @param idTokens Input ID tokens
+     * @param clientIds Client Ids to validate against, or null to use the audiences of the validator's policy
+     * @param executor Executor running the signature verifications
+     * @return one ValidationResult per token, in the order of idTokens
+     */
+    public List<ValidationResult> verifyAppleIDTokens(List<String> idTokens, List<String> clientIds, Executor executor) {
+        if (idTokens == null || idTokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int size = idTokens.size();
+        ValidationResult[] results = new ValidationResult[size];
+        ParsedAppleIDToken[] parsedIDTokens = new ParsedAppleIDToken[size];
+        TrustedIssuer[] issuers = new TrustedIssuer[size];
+        Map<TrustedIssuer, Map<String, RS256SignatureVerifier>> verifiersByIssuer =
+                new HashMap<TrustedIssuer, Map<String, RS256SignatureVerifier>>();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            IDTokenErrorEnum rejection = getCachedRejection(idTokens.get(i));
+            if (rejection != null) {
+                results[i] = ValidationResult.failure(rejection);
+                continue;
+            }
+            ParsedAppleIDToken parsedIDToken = parseIDToken(idTokens.get(i));
+            TrustedIssuer issuer = resolveIssuer(parsedIDToken);
+            results[i] = checkToken(parsedIDToken, issuer, clientIds, null, now);
+            if (results[i] == null) {
+                parsedIDTokens[i] = parsedIDToken;
+                issuers[i] = issuer;
+                Map<String, RS256SignatureVerifier> verifiersByKid = verifiersByIssuer.get(issuer);
+                if (verifiersByKid == null) {
+                    verifiersByKid = new HashMap<String, RS256SignatureVerifier>();
+                    verifiersByIssuer.put(issuer, verifiersByKid);
                 }
+                verifiersByKid.put(parsedIDToken.getHeader().getKeyId(), null);
             }
         }
-        return false;
+
+        Map<TrustedIssuer, IDTokenErrorEnum> publicKeyErrors = new HashMap<TrustedIssuer, IDTokenErrorEnum>();
+        for (Map.Entry<TrustedIssuer, Map<String, RS256SignatureVerifier>> entry : verifiersByIssuer.entrySet()) {
+            Map<String, RS256SignatureVerifier> verifiersByKid = entry.getValue();
+            for (String kid : new ArrayList<String>(verifiersByKid.keySet())) {
+                try {
+                    verifiersByKid.put(kid, entry.getKey().getKeysManager().getSignatureVerifier(kid));
+                } catch (IDTokenException e) {
+                    publicKeyErrors.put(entry.getKey(), e.getErrorEnum());
+                    break;
+                }
+            }
+        }
+
+        List<CompletableFuture<ValidationResult>> verifications = new ArrayList<CompletableFuture<ValidationResult>>();
+        for (int i = 0; i < size; i++) {
+            final ParsedAppleIDToken parsedIDToken = parsedIDTokens[i];
+            if (parsedIDToken == null) {
+                verifications.add(CompletableFuture.completedFuture(results[i]));
+                continue;
+            }
+            final RS256SignatureVerifier signatureVerifier =
+                    verifiersByIssuer.get(issuers[i]).get(parsedIDToken.getHeader().getKeyId());
+            IDTokenErrorEnum publicKeyError = publicKeyErrors.get(issuers[i]);
+            if (publicKeyError != null) {
+                verifications.add(CompletableFuture.completedFuture(ValidationResult.exceptionalFailure(publicKeyError)));
+            } else if (signatureVerifier == null) {
+                verifications.add(CompletableFuture.completedFuture(
+                        ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE)));
+            } else {
+                CompletableFuture<ValidationResult> verification;
+                try {
+                    verification = CompletableFuture.supplyAsync(
+                            () -> verifySignatureResult(parsedIDToken, signatureVerifier), executor);
+                } catch (RejectedExecutionException e) {
+                    // A saturated or shut down executor: verify on the calling thread, so every token gets its result.
+                    verification = CompletableFuture.completedFuture(verifySignatureResult(parsedIDToken, signatureVerifier));
+                }
+                verifications.add(verification);
+            }
+        }
+
+        ValidationResult[] verified = new ValidationResult[size];
+        for (int i = 0; i < size; i++) {
+            verified[i] = recordOutcome(verifications.get(i).join());
+        }
+        return Arrays.asList(verified);
+    }
+
+    /**
+     * Function that verifies ID token's signature and content against the audiences of the validator's policy
+     * and nonce without blocking the calling thread.
+     *
+     * @see #verifyAsync(String, List, String, Executor)
+     */
+    public CompletionStage<ValidationResult> verifyAsync(String idToken, String nonce) {
+        return verifyAsync(idToken, null, nonce);
+    }
+
+    /**
+     * Function that verifies ID token's signature and content against client ids and nonce without blocking
+     * the calling thread.
+     *
+     * @see #verifyAsync(String, List, String, Executor)
+     */
+    public CompletionStage<ValidationResult> verifyAsync(String idToken, List<String> clientIds, String nonce) {
+        return verifyAsync(idToken, clientIds, nonce, null);
     }
 
-    private boolean verifySignature(String idToken, PublicKey publicKey) throws IDTokenException {
+    /**
+     * Function that verifies ID token's signature and content against client ids and nonce without blocking
+     * the calling thread. The returned stage is already complete when the token is rejected by its claims,
+     * or when the Apple public key it was signed with is cached; the signature is then verified on the
+     * calling thread. Otherwise the stage completes once the key has been fetched on keyFetchExecutor.
+     * Failures, including key fetch errors, complete the stage normally with an invalid ValidationResult.
+     *
+     * @param idToken Input ID token
+     * @param clientIds Client Ids to validate against, or null to use the audiences of the validator's policy
+     * @param nonce Nonce to validate against
+     * @param keyFetchExecutor Executor allowed to block while Apple public keys are fetched, or null to use
+     *                         the key fetch executor of the token issuer's ApplePublicKeysManager
+     * @return stage completing with the ValidationResult
+     */
+    public CompletionStage<ValidationResult> verifyAsync(String idToken, List<String> clientIds, String nonce,
+                                                         Executor keyFetchExecutor) {
+        return verifyTokenAsync(idToken, clientIds, nonce, keyFetchExecutor).thenApply(this::recordOutcome);
+    }
+
+    private CompletableFuture<ValidationResult> verifyTokenAsync(String idToken, List<String> clientIds, String nonce,
+                                                                 Executor keyFetchExecutor) {
+        IDTokenErrorEnum rejection = getCachedRejection(idToken);
+        if (rejection != null) {
+            return CompletableFuture.completedFuture(ValidationResult.failure(rejection));
+        }
+        final ParsedAppleIDToken parsedIDToken = parseIDToken(idToken);
+        TrustedIssuer issuer = resolveIssuer(parsedIDToken);
+        ValidationResult failure = checkToken(parsedIDToken, issuer, clientIds, nonce, System.currentTimeMillis());
+        if (failure != null) {
+            return CompletableFuture.completedFuture(failure);
+        }
+        ApplePublicKeysManager keysManager = issuer.getKeysManager();
+
+        VerifiedTokenCache cache = verifiedTokenCache;
+        if (cache != null && cache.isVerified(parsedIDToken.getIdToken())) {
+            return CompletableFuture.completedFuture(ValidationResult.success(parsedIDToken.getUserInfo()));
+        }
+
+        // Already complete when the key is cached, in which case the signature is verified on the calling thread.
+        String kid = parsedIDToken.getHeader().getKeyId();
+        Executor executor = keyFetchExecutor != null ? keyFetchExecutor : keysManager.getKeyFetchExecutor();
+        return keysManager.getSignatureVerifierAsync(kid, executor).handle((fetchedVerifier, error) -> {
+            if (error != null) {
+                return ValidationResult.exceptionalFailure(toErrorEnum(error));
+            }
+            if (fetchedVerifier == null) {
+                return ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+            }
+            return verifySignatureResult(parsedIDToken, fetchedVerifier);
+        });
+    }
+
+    private static IDTokenErrorEnum toErrorEnum(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof IDTokenException) {
+            return ((IDTokenException) cause).getErrorEnum();
+        }
+        return IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR;
+    }
+
+    private ValidationResult recordOutcome(ValidationResult result) {
+        metrics.recordOutcome(result.getErrorEnum());
+        return result;
+    }
+
+    private ValidationResult verifySignatureResult(final ParsedAppleIDToken parsedIDToken,
+                                                   final RS256SignatureVerifier signatureVerifier) {
         try {
-            Jwts.parser().setSigningKey(publicKey).parseClaimsJws(idToken);
-        } catch (SignatureException e) {
-            return false;
-        } catch (MalformedJwtException e) {
-            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
-        } catch (IllegalArgumentException e) {
-            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
-        } catch (ExpiredJwtException e) {
-            throw new IDTokenException(IDTokenErrorEnum.EXPIRED_ID_TOKEN);
-        } catch (UnsupportedJwtException e) {
-            throw new IDTokenException(IDTokenErrorEnum.UNSUPPORTED_ID_TOKEN);
-        } catch (Exception e) {
-            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN, e);
+            if (verifyWithCache(parsedIDToken, () -> verifySignature(parsedIDToken, signatureVerifier))) {
+                return ValidationResult.success(parsedIDToken.getUserInfo());
+            }
+            return ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+        } catch (IDTokenException e) {
+            return ValidationResult.exceptionalFailure(e.getErrorEnum());
         }
-        return true;
+    }
+
+    private IDTokenErrorEnum getCachedRejection(String idToken) {
+        RejectedTokenCache cache = rejectedTokenCache;
+        return cache == null || idToken == null ? null : cache.getRejection(idToken);
+    }
+
+    private static boolean hasSupportedHeader(ParsedAppleIDToken parsedIDToken, TrustedIssuer issuer) {
+        AppleIDTokenHeader header = parsedIDToken.getHeader();
+        return !StringUtils.isBlank(header.getKeyId()) && issuer.isAlgorithmAllowed(header.getAlgorithm());
+    }
+
+    private boolean verifyWithCache(ParsedAppleIDToken parsedIDToken, VerifiedTokenCache.Verification verification)
+            throws IDTokenException {
+        VerifiedTokenCache cache = verifiedTokenCache;
+        if (cache == null) {
+            return verification.verify();
+        }
+        return cache.verify(parsedIDToken.getIdToken(), parsedIDToken.getExpiryTimeInMillis(), verification);
+    }
+
+    private boolean verifySignatureWithIssuerKey(ParsedAppleIDToken parsedIDToken, TrustedIssuer issuer)
+            throws IDTokenException {
+        RS256SignatureVerifier signatureVerifier =
+                issuer.getKeysManager().getSignatureVerifier(parsedIDToken.getHeader().getKeyId());
+        return signatureVerifier != null && verifySignature(parsedIDToken, signatureVerifier);
+    }
+
+    private boolean verifySignature(ParsedAppleIDToken parsedIDToken, RS256SignatureVerifier signatureVerifier)
+            throws IDTokenException {
+        long start = System.nanoTime();
+        boolean verified = signatureVerifier.verify(parsedIDToken.getSigningInput(), parsedIDToken.getSignature());
+        metrics.recordSignatureVerification(System.nanoTime() - start);
+        if (verified) {
+            return true;
+        }
+        RejectedTokenCache cache = rejectedTokenCache;
+        if (cache != null) {
+            cache.reject(parsedIDToken.getIdToken(), IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+        }
+        return false;
     }
 
     /**
@@ -99,62 +494,109 @@ public class AppleIDTokenValidator {
      * @throws IDTokenException
      */
     public AppleUserInfo extractAppleUserinfoFromIDToken(String idToken) throws IDTokenException {
-        AppleUserInfo appleUserInfo = null;
-        if(isValidIDToken(idToken)) {
-            try {
-                String payload = new String(Base64.decodeBase64(idToken.split(SEPARATOR_PERIOD)[1]));
-                appleUserInfo = new Gson().fromJson(payload, AppleUserInfo.class);
-            } catch (JsonSyntaxException e) {
-                throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
-            }
-            if (appleUserInfo == null) throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
-            return appleUserInfo;
-        } else {
-            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        ParsedAppleIDToken parsedIDToken = parseIDToken(idToken);
+        if (parsedIDToken == null || parsedIDToken == ParsedAppleIDToken.UNDECODABLE) throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        return parsedIDToken.getUserInfo();
+    }
+
+    /**
+     * Parses the ID token, unless it is longer than maxIDTokenLength.
+     * Returns null for a token that is too long or does not have three non-blank segments,
+     * and ParsedAppleIDToken.UNDECODABLE for a token whose segments cannot be decoded.
+     */
+    private ParsedAppleIDToken parseIDToken(String idToken) {
+        if (idToken != null && idToken.length() > maxIDTokenLength) {
+            return null;
         }
+        long start = System.nanoTime();
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(idToken);
+        metrics.recordParse(System.nanoTime() - start);
+        return parsedIDToken;
     }
 
-    private boolean isValidIDToken(String idToken) {
-    	if (StringUtils.isBlank(idToken) || idToken.length() < 5) return false;
-    	String[] idTokenStrings = idToken.split(SEPARATOR_PERIOD);
-        if (idTokenStrings == null 
-        		|| idTokenStrings.length != ID_TOKEN_PARTS
-                || StringUtils.isBlank(idTokenStrings[0])
-                || StringUtils.isBlank(idTokenStrings[1])
-                || StringUtils.isBlank(idTokenStrings[2])){
-            return false;
+    /** Returns the trusted issuer named by the token's unverified iss claim, or null if there is none. */
+    private TrustedIssuer resolveIssuer(ParsedAppleIDToken parsedIDToken) {
+        if (parsedIDToken == null || parsedIDToken == ParsedAppleIDToken.UNDECODABLE) {
+            return null;
         }
-        return true;
+        return issuerRegistry.getIssuer(parsedIDToken.getUserInfo().getIssuer());
     }
 
     /**
-        Verify the JWS E256 signature using the server’s public key
+     * Runs every check that needs no key lookup. Returns null if the token passed them, or else the failure,
+     * marked exceptional when verifyAppleIDToken reports it by throwing rather than returning false.
+     */
+    private ValidationResult checkToken(ParsedAppleIDToken parsedIDToken, TrustedIssuer issuer, List<String> clientIds,
+                                        String nonce, long now) {
+        long start = System.nanoTime();
+        ValidationResult failure = checkTokenClaims(parsedIDToken, issuer, clientIds, nonce, now);
+        metrics.recordClaimsCheck(System.nanoTime() - start);
+        return failure;
+    }
+
+    private ValidationResult checkTokenClaims(ParsedAppleIDToken parsedIDToken, TrustedIssuer issuer,
+                                              List<String> clientIds, String nonce, long now) {
+        if (parsedIDToken == null) {
+            return ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        }
+        if (parsedIDToken == ParsedAppleIDToken.UNDECODABLE) {
+            return ValidationResult.exceptionalFailure(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        }
+        if (issuer == null) {
+            return ValidationResult.failure(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        }
+        AppleTokenPolicy tokenPolicy = issuer.getTokenPolicy();
+        IDTokenErrorEnum payloadError = checkTokenPayload(parsedIDToken, tokenPolicy, clientIds, nonce, now);
+        if (payloadError == IDTokenErrorEnum.EXPIRED_ID_TOKEN) {
+            return ValidationResult.exceptionalFailure(payloadError);
+        }
+        if (payloadError != null) {
+            return ValidationResult.failure(payloadError);
+        }
+        if (!hasSupportedHeader(parsedIDToken, issuer)) {
+            return ValidationResult.exceptionalFailure(IDTokenErrorEnum.INVALID_ID_TOKEN);
+        }
+        return null;
+    }
 
+    /**
         Verify the nonce for the authentication
 
-        Verify that the iss field contains https://appleid.apple.com
+        Verify that the iss field is a trusted issuer, https://appleid.apple.com by default. This is done
+        beforehand by routing the token to the policy of its issuer
+
+        Verify that the aud field, or one of its values if it is an array, is one of the given client ids,
+        or else one of the policy's audiences
 
-        Verify that the aud field is the developer’s client_id
+        Verify that the time is earlier than the exp value of the token, allowing for the policy's clock skew
 
-        Verify that the time is earlier than the exp value of the token
+        These checks run, cheapest first, before any key lookup or signature verification.
+        The JWS RS256 signature is verified afterwards using the server’s public key.
      */
-    private boolean verifyTokenPayload(AppleUserInfo appleUserInfo, List<String> originalClientIds, String originalNonce) {
+    private IDTokenErrorEnum checkTokenPayload(ParsedAppleIDToken parsedIDToken, AppleTokenPolicy tokenPolicy,
+                                               List<String> originalClientIds, String originalNonce, long now) {
 
-        boolean isValidIssuer = !StringUtils.isBlank(appleUserInfo.getIssuer())
-                                && appleUserInfo.getIssuer().contains(APPLE_ISSUER);
+        AppleUserInfo appleUserInfo = parsedIDToken.getUserInfo();
 
-        boolean isValidClientId = true;
-        if(originalClientIds != null) {
-            isValidClientId = !StringUtils.isBlank(appleUserInfo.getClientId())
-                    && originalClientIds.contains(appleUserInfo.getClientId());
+        List<String> audiences = appleUserInfo.getAudiences();
+        if (originalClientIds != null ? Collections.disjoint(originalClientIds, audiences)
+                : !tokenPolicy.isAudienceAllowed(audiences)) {
+            return IDTokenErrorEnum.INVALID_ID_TOKEN;
         }
 
-        boolean isValidNonce = StringUtils.isBlank(originalNonce) ? true : (!StringUtils.isBlank(appleUserInfo.getNonce())
-                                && appleUserInfo.getNonce().equals(originalNonce));
+        long expiryTimeInMillis = parsedIDToken.getExpiryTimeInMillis();
+        if (expiryTimeInMillis < 0) {
+            return IDTokenErrorEnum.INVALID_ID_TOKEN;
+        }
+        if (tokenPolicy.isExpired(expiryTimeInMillis, now)) {
+            return IDTokenErrorEnum.EXPIRED_ID_TOKEN;
+        }
 
-        boolean isValidExpirationTime = StringUtils.isNumeric(appleUserInfo.getExpiryTime());
+        if (!StringUtils.isBlank(originalNonce) && !originalNonce.equals(appleUserInfo.getNonce())) {
+            return IDTokenErrorEnum.INVALID_ID_TOKEN;
+        }
 
-        return isValidIssuer && isValidClientId && isValidNonce && isValidExpirationTime;
+        return null;
     }
 
 }
@@ -0,0 +1,91 @@
+package org.ebayopensource.apple.idtoken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Key identifiers (kid) added, kept and removed by a refresh of the public keys.
+ *
+ * A kid whose key material changed is reported as both removed and added.
+ */
+public final class ApplePublicKeysChange {
+
+    private final List<String> addedKids;
+    private final List<String> keptKids;
+    private final List<String> removedKids;
+
+    ApplePublicKeysChange(List<String> addedKids, List<String> keptKids, List<String> removedKids) {
+        this.addedKids = Collections.unmodifiableList(addedKids);
+        this.keptKids = Collections.unmodifiableList(keptKids);
+        this.removedKids = Collections.unmodifiableList(removedKids);
+    }
+
+    /**
+     * Function that compares the keys of two snapshots by fingerprint.
+     *
+     * @param previous keys replaced, or null if there were none
+     * @param current keys now in use
+     * @return the kids added, kept and removed
+     */
+    static ApplePublicKeysChange between(ApplePublicKeysSnapshot previous, ApplePublicKeysSnapshot current) {
+        Map<String, String> previousFingerprints = previous == null ? Collections.<String, String>emptyMap()
+                : previous.getFingerprintsByKid();
+        List<String> added = new ArrayList<String>();
+        List<String> kept = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : current.getFingerprintsByKid().entrySet()) {
+            if (entry.getValue().equals(previousFingerprints.get(entry.getKey()))) {
+                kept.add(entry.getKey());
+            } else {
+                added.add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, String> entry : previousFingerprints.entrySet()) {
+            if (!entry.getValue().equals(current.getFingerprint(entry.getKey()))) {
+                removed.add(entry.getKey());
+            }
+        }
+        return new ApplePublicKeysChange(added, kept, removed);
+    }
+
+    public List<String> getAddedKids() {
+        return addedKids;
+    }
+
+    public List<String> getKeptKids() {
+        return keptKids;
+    }
+
+    public List<String> getRemovedKids() {
+        return removedKids;
+    }
+
+    /** Returns whether any key was added or removed. */
+    public boolean isChanged() {
+        return !addedKids.isEmpty() || !removedKids.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + addedKids + ", kept=" + keptKids + ", removed=" + removedKids;
+    }
+}
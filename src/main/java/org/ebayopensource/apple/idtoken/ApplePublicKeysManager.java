@@ -1,7 +1,7 @@
 package org.ebayopensource.apple.idtoken;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.collections.CollectionUtils;
 
@@ -9,20 +9,42 @@ import org.apache.commons.lang.StringUtils;
 import org.ebayopensource.apple.idtoken.entities.AppleJWKSet;
 import org.ebayopensource.apple.idtoken.entities.ApplePublicKey;
 import org.ebayopensource.apple.idtoken.httpclient.AppleHttpClient;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+import org.ebayopensource.apple.idtoken.keysource.HttpKeySource;
+import org.ebayopensource.apple.idtoken.keysource.KeySource;
+import org.ebayopensource.apple.idtoken.metrics.KeysMetrics;
 import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
 import org.ebayopensource.apple.idtoken.util.IDTokenException;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigInteger;
+import java.nio.file.Path;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /************************************************************************
  Copyright 2020 eBay Inc.
@@ -41,18 +63,28 @@ import java.util.concurrent.locks.ReentrantLock;
  limitations under the License.
  **************************************************************************/
 
-public class ApplePublicKeysManager {
+public class ApplePublicKeysManager implements Closeable {
 
     /** Number of milliseconds before expiration time to force a refresh. */
     private long refreshSkewMilliseconds = 86400000;
 
+    /** Lower bound of the key lifetime given by the caching headers of Apple's response. */
+    private long minKeysTimeToLiveMilliseconds = 300000;
+
+    /** Upper bound of the key lifetime given by the caching headers of Apple's response. */
+    private long maxKeysTimeToLiveMilliseconds = 86400000;
+
     /** Singleton object. */
     private static final ApplePublicKeysManager applePublicKeysManager = new ApplePublicKeysManager();
 
-    private List<PublicKey> applePublicKeys;
+    /** Current Apple public keys. Replaced as a whole on refresh, so reads never lock. */
+    private final AtomicReference<ApplePublicKeysSnapshot> snapshot = new AtomicReference<ApplePublicKeysSnapshot>();
 
-    /** Expiration time in milliseconds to refresh fetching of public key */
-    private long expirationTimeInMillis;
+    /** Minimum number of milliseconds between two refreshes forced by an unknown key identifier. */
+    private long minForcedRefreshIntervalMilliseconds = 60000;
+
+    /** Time in milliseconds of the last refresh forced by an unknown key identifier. */
+    private final AtomicLong lastForcedRefreshTimeInMillis = new AtomicLong();
 
     /** Indicates whether Proxy is enabled or not. */
     private boolean isProxyEnabled = false;
@@ -63,10 +95,93 @@ public class ApplePublicKeysManager {
     /** Proxy port to be set by consumer, if needed. */
     private int proxyPort;
 
-    /** Lock on the public keys. */
-    private final Lock lock = new ReentrantLock();
+    /** Refresh currently fetching the public keys, shared by every caller waiting for it; null when idle. */
+    private final AtomicReference<CompletableFuture<ApplePublicKeysSnapshot>> inFlightRefresh =
+            new AtomicReference<CompletableFuture<ApplePublicKeysSnapshot>>();
+
+    /** Source the keys are fetched from; Apple's endpoint unless configured otherwise. */
+    private volatile KeySource keySource = new HttpKeySource();
+
+    /** Executor running key fetches for asynchronous callers, or null to use ownedKeyFetchExecutor. */
+    private volatile Executor keyFetchExecutor;
+
+    /** Single thread executor of the manager's own, created on first use when no executor is set. */
+    private volatile ExecutorService ownedKeyFetchExecutor;
+
+    /** HTTP client created by the builder for this manager, shut down on close; null otherwise. */
+    private volatile AppleHttpClient ownedHttpClient;
+
+    /** Set by close; guarded by this. */
+    private boolean closed;
+
+    /** Number of milliseconds before expiration time at which the background refresh fetches the keys. */
+    private long refreshAheadMilliseconds = 300000;
+
+    /** Upper bound of the random delay subtracted from each background refresh, so instances do not refresh in step. */
+    private long refreshJitterMilliseconds = 60000;
+
+    /** Number of milliseconds after a failed refresh before it is retried. Doubles with each consecutive failure. */
+    private long refreshRetryIntervalMilliseconds = 30000;
+
+    /** Upper bound of the delay between two refresh attempts after consecutive failures. */
+    private long maxRefreshRetryIntervalMilliseconds = 600000;
+
+    /** Number of milliseconds past their expiry during which the last good keys are still used. */
+    private long maxStalenessMilliseconds = 86400000;
+
+    private final AtomicInteger consecutiveRefreshFailures = new AtomicInteger();
+
+    /** Time in milliseconds before which no refresh is attempted, after a failure. */
+    private volatile long nextRefreshAttemptTimeInMillis;
+
+    /** Refreshes forced by unknown key identifiers, across all callers, take a token from this bucket. */
+    private volatile TokenBucket forcedRefreshTokenBucket = new TokenBucket(5, 600000, System.currentTimeMillis());
+
+    /** Number of consecutive failed refreshes after which the circuit breaker opens. */
+    private int circuitBreakerFailureThreshold = 5;
+
+    /** Number of milliseconds the circuit breaker stays open before letting one refresh through. */
+    private long circuitBreakerOpenMilliseconds = 300000;
+
+    /** Number of times the circuit breaker opened. */
+    private final AtomicLong circuitBreakerOpenCount = new AtomicLong();
+
+    /** Number of refreshes requested by request threads but not run due to rate limits, backoff or the circuit breaker. */
+    private final AtomicLong suppressedRefreshCount = new AtomicLong();
+
+    /** File the last good keys are persisted to, or null. */
+    private volatile Path keysSnapshotFile;
+
+    /** Set while a refresh of expired keys runs on keyFetchExecutor for request threads. */
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+
+    private RefreshFailureListener refreshFailureListener;
+
+    /** Scheduler running the background refresh, or null when it is not started. */
+    private volatile ScheduledExecutorService refreshScheduler;
+
+    private volatile ScheduledFuture<?> scheduledRefresh;
+
+    /** Whether refreshScheduler was created by startBackgroundRefresh(), and is shut down when it stops. */
+    private boolean ownsRefreshScheduler;
+
+    private volatile KeysChangeListener keysChangeListener;
 
-    private AppleHttpClient appleHttpClient = AppleHttpClient.getAppleHttpClient();
+    /** Key cache hits and misses, and refresh count, latency and failures. */
+    private final KeysMetrics metrics = new KeysMetrics();
+
+    /** Kids added, kept and removed by the last refresh that fetched new keys, or null before the first one. */
+    private volatile ApplePublicKeysChange lastKeysChange;
+
+    /** Notified when a refresh adds or removes keys, e.g. on a key rotation by Apple. */
+    public interface KeysChangeListener {
+        void onKeysChanged(ApplePublicKeysChange change);
+    }
+
+    /** Notified when a background refresh fails. The previous keys stay in use. */
+    public interface RefreshFailureListener {
+        void onRefreshFailure(IDTokenException e);
+    }
 
     /** Singleton constructor. */
     public static ApplePublicKeysManager getApplePublicKeysManager() {
@@ -75,6 +190,24 @@ public class ApplePublicKeysManager {
 
     private ApplePublicKeysManager() {}
 
+    /**
+     * Creates a manager with a key cache and refresh state of its own. Managers other than the singleton
+     * are created through builder().
+     *
+     * @param keySource source the keys are fetched from
+     */
+    ApplePublicKeysManager(KeySource keySource) {
+        setKeySource(keySource);
+    }
+
+    /**
+     * Returns a builder of managers independent of the singleton, each with its own HTTP client, proxy,
+     * timeouts and key lifetime policy.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
     /** Returns whether proxy is enabled or not. */
     public boolean isProxyEnabled() {
         return isProxyEnabled;
@@ -83,6 +216,7 @@ public class ApplePublicKeysManager {
     
     public void setProxyEnabled(boolean isProxyEnabled) {
 		this.isProxyEnabled = isProxyEnabled;
+		applyProxy();
 	}
 
 	/** Returns whether proxy host. */
@@ -100,6 +234,7 @@ public class ApplePublicKeysManager {
         if(!StringUtils.isEmpty(proxyHost)) {
             this.proxyHost = proxyHost;
             this.isProxyEnabled = true;
+            applyProxy();
             return this;
         } else {
             throw new IDTokenException(IDTokenErrorEnum.PROXY_SETUP_ERROR);
@@ -107,6 +242,21 @@ public class ApplePublicKeysManager {
 
     }
 
+    /**
+     * Applies the proxy settings to the HTTP client of the key source, once both host and port are set.
+     * The shared client of Apple's endpoint reads the singleton's settings itself.
+     */
+    private void applyProxy() {
+        KeySource source = keySource;
+        if (source instanceof HttpKeySource) {
+            AppleHttpClient client = ((HttpKeySource) source).getAppleHttpClient();
+            if (client != AppleHttpClient.getAppleHttpClient()) {
+                boolean enabled = isProxyEnabled && proxyHost != null && proxyPort > 0;
+                client.setProxy(enabled ? proxyHost : null, proxyPort);
+            }
+        }
+    }
+
     public int getProxyPort() {
         return proxyPort;
     }
@@ -121,6 +271,7 @@ public class ApplePublicKeysManager {
         if(proxyPort > 0) {
             this.proxyPort = proxyPort;
             this.isProxyEnabled = true;
+            applyProxy();
             return this;
         } else {
             throw new IDTokenException(IDTokenErrorEnum.PROXY_SETUP_ERROR);
@@ -137,54 +288,809 @@ public class ApplePublicKeysManager {
         return this;
     }
 
+    public long getMinKeysTimeToLiveMilliseconds() {
+        return minKeysTimeToLiveMilliseconds;
+    }
+
+    /**
+     * Set the lower bound of the key lifetime taken from the Cache-Control or Expires header of Apple's response.
+     * @param minKeysTimeToLiveMilliseconds lifetime in milliseconds, defaults to 300000
+     * @return ApplePublicKeysManager object after setting the bound
+     */
+    public ApplePublicKeysManager setMinKeysTimeToLiveMilliseconds(long minKeysTimeToLiveMilliseconds) {
+        this.minKeysTimeToLiveMilliseconds = minKeysTimeToLiveMilliseconds;
+        return this;
+    }
+
+    public long getMaxKeysTimeToLiveMilliseconds() {
+        return maxKeysTimeToLiveMilliseconds;
+    }
+
+    /**
+     * Set the upper bound of the key lifetime taken from the Cache-Control or Expires header of Apple's response.
+     * @param maxKeysTimeToLiveMilliseconds lifetime in milliseconds, defaults to 86400000
+     * @return ApplePublicKeysManager object after setting the bound
+     */
+    public ApplePublicKeysManager setMaxKeysTimeToLiveMilliseconds(long maxKeysTimeToLiveMilliseconds) {
+        this.maxKeysTimeToLiveMilliseconds = maxKeysTimeToLiveMilliseconds;
+        return this;
+    }
+
+    /**
+     * Returns the lifetime of keys fetched with the given caching-header lifetime: refreshSkewMilliseconds
+     * when the headers give none, otherwise the headers' lifetime bounded by the min and max keys time to live.
+     */
+    long getKeysTimeToLive(long headerTimeToLiveMilliseconds) {
+        if(headerTimeToLiveMilliseconds < 0) {
+            return refreshSkewMilliseconds;
+        }
+        return Math.max(minKeysTimeToLiveMilliseconds, Math.min(maxKeysTimeToLiveMilliseconds, headerTimeToLiveMilliseconds));
+    }
+
+    public long getMinForcedRefreshIntervalMilliseconds() {
+        return minForcedRefreshIntervalMilliseconds;
+    }
+
+    /**
+     * Set the minimum interval between two refreshes triggered by a token signed with an unknown key identifier.
+     * @param minForcedRefreshIntervalMilliseconds interval in milliseconds
+     * @return ApplePublicKeysManager object after setting the interval
+     */
+    public ApplePublicKeysManager setMinForcedRefreshIntervalMilliseconds(long minForcedRefreshIntervalMilliseconds) {
+        this.minForcedRefreshIntervalMilliseconds = minForcedRefreshIntervalMilliseconds;
+        return this;
+    }
+
+    /**
+     * Set the global rate limit of refreshes forced by unknown key identifiers, on top of
+     * minForcedRefreshIntervalMilliseconds: a burst of up to capacity refreshes, then one per refillIntervalMilliseconds.
+     * @param capacity maximum number of forced refreshes in a burst, defaults to 5
+     * @param refillIntervalMilliseconds interval in milliseconds at which one more forced refresh is allowed, defaults to 600000
+     * @return ApplePublicKeysManager object after setting the rate limit
+     */
+    public ApplePublicKeysManager setForcedRefreshRateLimit(int capacity, long refillIntervalMilliseconds) {
+        this.forcedRefreshTokenBucket = new TokenBucket(capacity, refillIntervalMilliseconds, System.currentTimeMillis());
+        return this;
+    }
+
+    public int getForcedRefreshBurstCapacity() {
+        return forcedRefreshTokenBucket.getCapacity();
+    }
+
+    public long getForcedRefreshRefillIntervalMilliseconds() {
+        return forcedRefreshTokenBucket.getRefillIntervalMilliseconds();
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Set the number of consecutive failed refreshes after which the circuit breaker opens. While it is open
+     * no refresh is attempted, except explicit calls to refreshApplePublicKeys.
+     * @param circuitBreakerFailureThreshold number of failures, defaults to 5
+     * @return ApplePublicKeysManager object after setting the threshold
+     */
+    public ApplePublicKeysManager setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        return this;
+    }
+
+    public long getCircuitBreakerOpenMilliseconds() {
+        return circuitBreakerOpenMilliseconds;
+    }
+
+    /**
+     * Set how long the circuit breaker stays open before letting a single refresh through.
+     * @param circuitBreakerOpenMilliseconds duration in milliseconds, defaults to 300000
+     * @return ApplePublicKeysManager object after setting the duration
+     */
+    public ApplePublicKeysManager setCircuitBreakerOpenMilliseconds(long circuitBreakerOpenMilliseconds) {
+        this.circuitBreakerOpenMilliseconds = circuitBreakerOpenMilliseconds;
+        return this;
+    }
+
+    /** Returns true while the circuit breaker is open, i.e. refreshes are not attempted after repeated failures. */
+    public boolean isCircuitBreakerOpen() {
+        return consecutiveRefreshFailures.get() >= circuitBreakerFailureThreshold
+                && System.currentTimeMillis() < nextRefreshAttemptTimeInMillis;
+    }
+
+    /** Returns the number of times the circuit breaker opened. */
+    public long getCircuitBreakerOpenCount() {
+        return circuitBreakerOpenCount.get();
+    }
+
+    /**
+     * Returns the number of refreshes requested by request threads, on an unknown key identifier or for want of
+     * usable keys, that were not run because of the rate limits, the backoff or the circuit breaker.
+     */
+    public long getSuppressedRefreshCount() {
+        return suppressedRefreshCount.get();
+    }
+
+    /**
+     * Function that returns the Apple PublicKey matching the given key identifier.
+     * Keys are fetched on first use and once expired. An unknown key identifier forces a refresh, to pick up
+     * keys rotated by Apple, at most once per minForcedRefreshIntervalMilliseconds and within the forced refresh
+     * rate limit, and never while refreshes back off or the circuit breaker is open.
+     *
+     * @param kid key identifier from the ID token header
+     * @return matching PublicKey, or null if Apple does not publish a key with this identifier
+     * @throws IDTokenException
+     */
+    public final PublicKey getApplePublicKey(String kid) throws IDTokenException {
+        RS256SignatureVerifier signatureVerifier = getSignatureVerifier(kid);
+        return signatureVerifier == null ? null : signatureVerifier.getPublicKey();
+    }
+
+    /**
+     * Function that returns the signature verifier of the Apple public key matching the given key identifier.
+     *
+     * @see #getApplePublicKey(String)
+     */
+    RS256SignatureVerifier getSignatureVerifier(String kid) throws IDTokenException {
+        ApplePublicKeysSnapshot held = snapshot.get();
+        ApplePublicKeysSnapshot current = getSnapshot();
+        RS256SignatureVerifier signatureVerifier = current.getSignatureVerifier(kid);
+        if(signatureVerifier == null) {
+            long now = System.currentTimeMillis();
+            long lastForcedRefresh = lastForcedRefreshTimeInMillis.get();
+            if(now >= nextRefreshAttemptTimeInMillis
+                    && now - lastForcedRefresh >= minForcedRefreshIntervalMilliseconds
+                    && tryStartForcedRefresh(lastForcedRefresh, now)) {
+                signatureVerifier = await(startRefresh(current)).getSignatureVerifier(kid);
+            } else {
+                suppressedRefreshCount.incrementAndGet();
+            }
+        }
+        if(signatureVerifier != null && current == held) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+        }
+        return signatureVerifier;
+    }
+
+    /**
+     * Claims the minimum interval window of a forced refresh, then a token of the rate limit. The window is given
+     * back if the rate limit denies the refresh, so that it does not delay the next one.
+     */
+    private boolean tryStartForcedRefresh(long lastForcedRefresh, long now) {
+        if(!lastForcedRefreshTimeInMillis.compareAndSet(lastForcedRefresh, now)) {
+            return false;
+        }
+        if(forcedRefreshTokenBucket.tryAcquire(now)) {
+            return true;
+        }
+        lastForcedRefreshTimeInMillis.compareAndSet(now, lastForcedRefresh);
+        return false;
+    }
+
+    /**
+     * Function that returns the Apple PublicKey matching the given key identifier if it is already cached
+     * and usable, i.e. not expired or within maxStalenessMilliseconds of its expiry. It never locks nor fetches
+     * keys on the calling thread.
+     *
+     * @param kid key identifier from the ID token header
+     * @return matching PublicKey, or null if it is not cached
+     */
+    public PublicKey getCachedApplePublicKey(String kid) {
+        RS256SignatureVerifier signatureVerifier = getCachedSignatureVerifier(kid);
+        return signatureVerifier == null ? null : signatureVerifier.getPublicKey();
+    }
+
+    /** @see #getCachedApplePublicKey(String) */
+    RS256SignatureVerifier getCachedSignatureVerifier(String kid) {
+        RS256SignatureVerifier signatureVerifier = findCachedSignatureVerifier(kid);
+        if(signatureVerifier != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+        }
+        return signatureVerifier;
+    }
+
+    private RS256SignatureVerifier findCachedSignatureVerifier(String kid) {
+        ApplePublicKeysSnapshot current = getUsableSnapshot(System.currentTimeMillis());
+        return current == null ? null : current.getSignatureVerifier(kid);
+    }
+
+    /**
+     * Function that returns the Apple PublicKey matching the given key identifier without blocking the caller.
+     * The returned future is already complete when the key is cached; otherwise the key is looked up,
+     * and fetched if needed, on the key fetch executor.
+     *
+     * @param kid key identifier from the ID token header
+     * @return future completing with the matching PublicKey or null, or exceptionally with an IDTokenException
+     */
+    public CompletableFuture<PublicKey> getApplePublicKeyAsync(String kid) {
+        return getApplePublicKeyAsync(kid, getKeyFetchExecutor());
+    }
+
+    /**
+     * @see #getApplePublicKeyAsync(String)
+     * @param executor Executor running the key fetch when the key is not cached
+     */
+    public CompletableFuture<PublicKey> getApplePublicKeyAsync(String kid, Executor executor) {
+        return getSignatureVerifierAsync(kid, executor)
+                .thenApply(signatureVerifier -> signatureVerifier == null ? null : signatureVerifier.getPublicKey());
+    }
+
+    /** @see #getApplePublicKeyAsync(String, Executor) */
+    CompletableFuture<RS256SignatureVerifier> getSignatureVerifierAsync(final String kid, Executor executor) {
+        RS256SignatureVerifier signatureVerifier = findCachedSignatureVerifier(kid);
+        if(signatureVerifier != null) {
+            metrics.recordCacheHit();
+            return CompletableFuture.completedFuture(signatureVerifier);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getSignatureVerifier(kid);
+            } catch (IDTokenException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public Executor getKeyFetchExecutor() {
+        Executor executor = keyFetchExecutor;
+        return executor != null ? executor : getOwnedKeyFetchExecutor();
+    }
+
+    private ExecutorService getOwnedKeyFetchExecutor() {
+        ExecutorService executor = ownedKeyFetchExecutor;
+        if(executor == null) {
+            synchronized (this) {
+                executor = ownedKeyFetchExecutor;
+                if(executor == null) {
+                    executor = newKeyFetchExecutor();
+                    if(closed) {
+                        // A closed manager starts no thread: fetches are rejected as by a shut down executor.
+                        executor.shutdown();
+                    }
+                    ownedKeyFetchExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set the executor running key fetches for asynchronous callers. It is not shut down by close.
+     * @param keyFetchExecutor executor allowed to block on network I/O, or null for a single thread of the manager's own
+     * @return ApplePublicKeysManager object after setting the executor
+     */
+    public ApplePublicKeysManager setKeyFetchExecutor(Executor keyFetchExecutor) {
+        this.keyFetchExecutor = keyFetchExecutor;
+        return this;
+    }
+
+    public long getRefreshAheadMilliseconds() {
+        return refreshAheadMilliseconds;
+    }
+
+    /**
+     * Set how long before the keys expire the background refresh fetches them again.
+     * @param refreshAheadMilliseconds lead time in milliseconds, defaults to 300000
+     * @return ApplePublicKeysManager object after setting the lead time
+     */
+    public ApplePublicKeysManager setRefreshAheadMilliseconds(long refreshAheadMilliseconds) {
+        this.refreshAheadMilliseconds = refreshAheadMilliseconds;
+        return this;
+    }
+
+    public long getRefreshJitterMilliseconds() {
+        return refreshJitterMilliseconds;
+    }
+
+    /**
+     * Set the upper bound of the random delay subtracted from each background refresh.
+     * @param refreshJitterMilliseconds jitter in milliseconds, defaults to 60000
+     * @return ApplePublicKeysManager object after setting the jitter
+     */
+    public ApplePublicKeysManager setRefreshJitterMilliseconds(long refreshJitterMilliseconds) {
+        this.refreshJitterMilliseconds = refreshJitterMilliseconds;
+        return this;
+    }
+
+    public long getRefreshRetryIntervalMilliseconds() {
+        return refreshRetryIntervalMilliseconds;
+    }
+
+    /**
+     * Set the delay before a failed background refresh is retried.
+     * @param refreshRetryIntervalMilliseconds delay in milliseconds, defaults to 30000
+     * @return ApplePublicKeysManager object after setting the delay
+     */
+    public ApplePublicKeysManager setRefreshRetryIntervalMilliseconds(long refreshRetryIntervalMilliseconds) {
+        this.refreshRetryIntervalMilliseconds = refreshRetryIntervalMilliseconds;
+        return this;
+    }
+
+    public long getMaxRefreshRetryIntervalMilliseconds() {
+        return maxRefreshRetryIntervalMilliseconds;
+    }
+
+    /**
+     * Set the upper bound of the exponential backoff between refresh attempts after consecutive failures.
+     * @param maxRefreshRetryIntervalMilliseconds delay in milliseconds, defaults to 600000
+     * @return ApplePublicKeysManager object after setting the delay
+     */
+    public ApplePublicKeysManager setMaxRefreshRetryIntervalMilliseconds(long maxRefreshRetryIntervalMilliseconds) {
+        this.maxRefreshRetryIntervalMilliseconds = maxRefreshRetryIntervalMilliseconds;
+        return this;
+    }
+
+    public long getMaxStalenessMilliseconds() {
+        return maxStalenessMilliseconds;
+    }
+
+    /**
+     * Set how long past their expiry the last good keys are still used while refreshes fail.
+     * @param maxStalenessMilliseconds staleness in milliseconds, defaults to 86400000
+     * @return ApplePublicKeysManager object after setting the staleness
+     */
+    public ApplePublicKeysManager setMaxStalenessMilliseconds(long maxStalenessMilliseconds) {
+        this.maxStalenessMilliseconds = maxStalenessMilliseconds;
+        return this;
+    }
+
+    /**
+     * Returns how many milliseconds past their expiry the keys in use are: 0 while they are fresh,
+     * or -1 if no keys were fetched yet.
+     */
+    public long getKeyStalenessMilliseconds() {
+        ApplePublicKeysSnapshot current = snapshot.get();
+        if(current == null) {
+            return -1;
+        }
+        return Math.max(0, System.currentTimeMillis() - current.getExpirationTimeInMillis());
+    }
+
+    /** Returns the number of refreshes that failed since the last successful one. */
+    public int getConsecutiveRefreshFailures() {
+        return consecutiveRefreshFailures.get();
+    }
+
+    public KeysChangeListener getKeysChangeListener() {
+        return keysChangeListener;
+    }
+
+    /**
+     * Set the listener notified when a refresh adds or removes keys.
+     * @param keysChangeListener listener, or null to ignore key changes
+     * @return ApplePublicKeysManager object after setting the listener
+     */
+    public ApplePublicKeysManager setKeysChangeListener(KeysChangeListener keysChangeListener) {
+        this.keysChangeListener = keysChangeListener;
+        return this;
+    }
+
+    /** Returns the kids added, kept and removed by the last refresh that fetched new keys, or null if none did. */
+    public ApplePublicKeysChange getLastKeysChange() {
+        return lastKeysChange;
+    }
+
+    public RefreshFailureListener getRefreshFailureListener() {
+        return refreshFailureListener;
+    }
+
+    /**
+     * Set the listener notified when a background refresh fails.
+     * @param refreshFailureListener listener, or null to ignore failures
+     * @return ApplePublicKeysManager object after setting the listener
+     */
+    public ApplePublicKeysManager setRefreshFailureListener(RefreshFailureListener refreshFailureListener) {
+        this.refreshFailureListener = refreshFailureListener;
+        return this;
+    }
+
+    /**
+     * Starts refreshing the keys in the background on a daemon thread owned by the manager.
+     *
+     * @see #startBackgroundRefresh(ScheduledExecutorService)
+     */
+    public ApplePublicKeysManager startBackgroundRefresh() {
+        return startBackgroundRefresh(Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "apple-public-keys-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Starts refreshing the keys in the background: they are fetched right away, then again
+     * refreshAheadMilliseconds, minus a random jitter, before they expire. While the background refresh runs,
+     * request threads keep using the current keys, up to maxStalenessMilliseconds past their expiry, instead of
+     * fetching them, and a failed refresh is reported to the RefreshFailureListener and retried with backoff.
+     *
+     * @param scheduler scheduler running the refreshes, allowed to block on network I/O
+     * @return ApplePublicKeysManager object after starting the background refresh
+     */
+    public ApplePublicKeysManager startBackgroundRefresh(ScheduledExecutorService scheduler) {
+        if(scheduler == null) {
+            throw new IllegalArgumentException("scheduler must not be null");
+        }
+        return startBackgroundRefresh(scheduler, false);
+    }
+
+    private synchronized ApplePublicKeysManager startBackgroundRefresh(ScheduledExecutorService scheduler, boolean owned) {
+        stopBackgroundRefresh();
+        refreshScheduler = scheduler;
+        ownsRefreshScheduler = owned;
+        scheduleBackgroundRefresh(scheduler, 0);
+        return this;
+    }
+
+    /**
+     * Stops the background refresh. The scheduler created by startBackgroundRefresh() is shut down;
+     * a scheduler passed to startBackgroundRefresh is not.
+     */
+    public synchronized void stopBackgroundRefresh() {
+        ScheduledExecutorService scheduler = refreshScheduler;
+        refreshScheduler = null;
+        ScheduledFuture<?> refresh = scheduledRefresh;
+        if(refresh != null) {
+            refresh.cancel(false);
+        }
+        if(scheduler != null && ownsRefreshScheduler) {
+            scheduler.shutdownNow();
+        }
+        ownsRefreshScheduler = false;
+    }
+
+    public boolean isBackgroundRefreshStarted() {
+        return refreshScheduler != null;
+    }
+
+    private void scheduleBackgroundRefresh(ScheduledExecutorService scheduler, long delayMilliseconds) {
+        try {
+            scheduledRefresh = scheduler.schedule(() -> runBackgroundRefresh(scheduler), delayMilliseconds, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The scheduler was shut down: request threads fetch the keys again once they expire.
+            if(refreshScheduler == scheduler) {
+                refreshScheduler = null;
+            }
+        }
+    }
+
+    private void runBackgroundRefresh(ScheduledExecutorService scheduler) {
+        if(refreshScheduler != scheduler) {
+            return;
+        }
+        long delayMilliseconds;
+        try {
+            ApplePublicKeysSnapshot fetched = await(startRefresh(snapshot.get()));
+            delayMilliseconds = getBackgroundRefreshDelay(fetched, System.currentTimeMillis());
+        } catch (IDTokenException e) {
+            RefreshFailureListener listener = refreshFailureListener;
+            if(listener != null) {
+                try {
+                    listener.onRefreshFailure(e);
+                } catch (RuntimeException ignored) {
+                    // A failing listener must not stop the background refresh.
+                }
+            }
+            delayMilliseconds = Math.max(0, nextRefreshAttemptTimeInMillis - System.currentTimeMillis());
+        }
+        if(refreshScheduler == scheduler) {
+            scheduleBackgroundRefresh(scheduler, delayMilliseconds);
+        }
+    }
+
+    /** Returns the delay until the background refresh replacing the given snapshot, never negative. */
+    long getBackgroundRefreshDelay(ApplePublicKeysSnapshot fetched, long now) {
+        long jitter = refreshJitterMilliseconds > 0 ? ThreadLocalRandom.current().nextLong(refreshJitterMilliseconds + 1) : 0;
+        return Math.max(0, fetched.getExpirationTimeInMillis() - refreshAheadMilliseconds - jitter - now);
+    }
+
+    private static ExecutorService newKeyFetchExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "apple-public-keys-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Releases what the manager created itself: it stops the background refresh, shuts down its own key fetch
+     * executor and refresh scheduler, and the HTTP client built by the builder, and closes the key source if it is
+     * Closeable. Executors and schedulers passed in by the caller are not shut down. The shared manager returned
+     * by getApplePublicKeysManager() cannot be closed.
+     */
+    @Override
+    public void close() {
+        if(this == applePublicKeysManager) {
+            throw new IllegalStateException("the shared ApplePublicKeysManager cannot be closed");
+        }
+        stopBackgroundRefresh();
+        ExecutorService executor;
+        synchronized (this) {
+            closed = true;
+            executor = ownedKeyFetchExecutor;
+        }
+        if(executor != null) {
+            executor.shutdown();
+        }
+        AppleHttpClient client = ownedHttpClient;
+        if(client != null) {
+            client.shutdown();
+        }
+        KeySource source = keySource;
+        if(source instanceof Closeable) {
+            try {
+                ((Closeable) source).close();
+            } catch (IOException e) {
+                // Nothing is left to release that the caller could act on.
+            }
+        }
+    }
+
     /**
      * Function that returns list of Apple PublicKey objects.
-     * Existing initialized keys would be returned if 
+     * Existing initialized keys would be returned if they are not expired.
      *
-     * @return
+     * @return unmodifiable list of Apple public keys
      * @throws IDTokenException
      */
     public final List<PublicKey> getApplePublicKeys() throws IDTokenException {
-        lock.lock();
+        return getSnapshot().getPublicKeys();
+    }
+
+    /**
+     * Function that returns the current key snapshot without locking. Keys past their expiry but within
+     * maxStalenessMilliseconds are returned at once while they are refreshed on keyFetchExecutor
+     * (stale-while-revalidate), and stay in use while that refresh fails (stale-if-error). Only when there are
+     * no keys, or they are staler than that, does the caller wait for a fetch; during the backoff following a
+     * failed refresh, or while the circuit breaker is open, it fails at once instead.
+     */
+    ApplePublicKeysSnapshot getSnapshot() throws IDTokenException {
+        long now = System.currentTimeMillis();
+        ApplePublicKeysSnapshot current = getUsableSnapshot(now);
+        if(current != null) {
+            return current;
+        }
+        if(now < nextRefreshAttemptTimeInMillis) {
+            suppressedRefreshCount.incrementAndGet();
+            throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
+        }
+        return await(startRefresh(snapshot.get()));
+    }
+
+    /**
+     * Function that returns the current snapshot if it is fresh or within maxStalenessMilliseconds of its expiry,
+     * and null otherwise. A stale snapshot is refreshed on keyFetchExecutor unless the background refresh runs.
+     */
+    private ApplePublicKeysSnapshot getUsableSnapshot(long now) {
+        ApplePublicKeysSnapshot current = snapshot.get();
+        if(current == null) {
+            return null;
+        }
+        if(!current.isExpired(now)) {
+            return current;
+        }
+        if(now - current.getExpirationTimeInMillis() > maxStalenessMilliseconds) {
+            return null;
+        }
+        if(refreshScheduler == null) {
+            revalidate(current, now);
+        }
+        return current;
+    }
+
+    /** Refreshes the given stale snapshot on keyFetchExecutor, unless a refresh is already running or backing off. */
+    private void revalidate(final ApplePublicKeysSnapshot stale, long now) {
+        if(now < nextRefreshAttemptTimeInMillis || inFlightRefresh.get() != null || !revalidating.compareAndSet(false, true)) {
+            return;
+        }
         try {
-            if(applePublicKeys == null || System.currentTimeMillis() + refreshSkewMilliseconds > expirationTimeInMillis) {
-                refreshApplePublicKeys();
-            }
-            return applePublicKeys;
-        } finally {
-            lock.unlock();
+            getKeyFetchExecutor().execute(() -> {
+                try {
+                    startRefresh(stale);
+                } finally {
+                    revalidating.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            revalidating.set(false);
         }
     }
 
+    /**
+     * Function that fetches the keys now. An explicit refresh ignores, and does not extend, the backoff
+     * following failed refreshes.
+     *
+     * @return ApplePublicKeysManager object after refreshing the keys
+     * @throws IDTokenException if the keys cannot be fetched
+     */
     public ApplePublicKeysManager refreshApplePublicKeys() throws IDTokenException {
-        lock.lock();
+        await(startRefresh(snapshot.get(), false));
+        return this;
+    }
+
+    private CompletableFuture<ApplePublicKeysSnapshot> startRefresh(ApplePublicKeysSnapshot stale) {
+        return startRefresh(stale, true);
+    }
+
+    /**
+     * Function that returns the refresh replacing the given snapshot. The first caller to publish its future
+     * fetches the keys on its own thread, without holding any lock; every other caller shares that future.
+     *
+     * @param stale snapshot seen by the caller, possibly null
+     * @param backOff whether a failure delays the next automatic refresh
+     * @return future completing with the newer snapshot
+     */
+    private CompletableFuture<ApplePublicKeysSnapshot> startRefresh(ApplePublicKeysSnapshot stale, boolean backOff) {
+        while(true) {
+            CompletableFuture<ApplePublicKeysSnapshot> inFlight = inFlightRefresh.get();
+            if(inFlight != null) {
+                return inFlight;
+            }
+            // The snapshot is published before the in-flight refresh is cleared, so a newer one is seen here.
+            ApplePublicKeysSnapshot current = snapshot.get();
+            if(current != null && current != stale) {
+                return CompletableFuture.completedFuture(current);
+            }
+            CompletableFuture<ApplePublicKeysSnapshot> refresh = new CompletableFuture<ApplePublicKeysSnapshot>();
+            if(inFlightRefresh.compareAndSet(null, refresh)) {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    ApplePublicKeysSnapshot fetched = fetchSnapshot();
+                    failed = false;
+                    consecutiveRefreshFailures.set(0);
+                    nextRefreshAttemptTimeInMillis = 0;
+                    refresh.complete(fetched);
+                } catch (IDTokenException e) {
+                    recordRefreshFailure(backOff);
+                    refresh.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    recordRefreshFailure(backOff);
+                    refresh.completeExceptionally(new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR, e));
+                } catch (Error e) {
+                    // Fail the waiters too, or they would block forever on a future nobody completes.
+                    recordRefreshFailure(backOff);
+                    refresh.completeExceptionally(new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR, e));
+                    throw e;
+                } finally {
+                    metrics.recordRefresh(System.nanoTime() - start, failed);
+                    inFlightRefresh.compareAndSet(refresh, null);
+                }
+                return refresh;
+            }
+        }
+    }
+
+    /**
+     * Delays the next refresh attempt by refreshRetryIntervalMilliseconds, doubled for each consecutive failure,
+     * or by circuitBreakerOpenMilliseconds once the failures reach circuitBreakerFailureThreshold. A failure of the
+     * single refresh let through after that period reopens the circuit breaker; a success closes it.
+     */
+    private void recordRefreshFailure(boolean backOff) {
+        int failures = consecutiveRefreshFailures.incrementAndGet();
+        if(backOff) {
+            long delay = getRefreshRetryDelay(failures);
+            if(failures >= circuitBreakerFailureThreshold) {
+                circuitBreakerOpenCount.incrementAndGet();
+                delay = Math.max(delay, circuitBreakerOpenMilliseconds);
+            }
+            nextRefreshAttemptTimeInMillis = System.currentTimeMillis() + delay;
+        }
+    }
+
+    long getRefreshRetryDelay(int failures) {
+        int doublings = Math.min(failures - 1, 30);
+        long delay = refreshRetryIntervalMilliseconds > (Long.MAX_VALUE >> doublings)
+                ? Long.MAX_VALUE : refreshRetryIntervalMilliseconds << doublings;
+        return Math.min(delay, maxRefreshRetryIntervalMilliseconds);
+    }
+
+    private static ApplePublicKeysSnapshot await(CompletableFuture<ApplePublicKeysSnapshot> refresh) throws IDTokenException {
         try {
+            return refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IDTokenException) {
+                // Rethrown as a new exception, as the failure is shared by every caller that waited on it.
+                throw new IDTokenException(((IDTokenException) e.getCause()).getErrorEnum(), e.getCause());
+            }
+            throw new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR, e.getCause());
+        }
+    }
 
-            applePublicKeys = new ArrayList<PublicKey>();
-            AppleJWKSet keys = fetchRawPublicKeys();
+    /**
+     * Fetches the keys and atomically publishes them as the new snapshot.
+     * Only the caller that won startRefresh runs it, so fetches never overlap.
+     */
+    private ApplePublicKeysSnapshot fetchSnapshot() throws IDTokenException {
+        ApplePublicKeysSnapshot current = snapshot.get();
+        AppleKeysResponse response = fetchRawPublicKeys(current);
+        long now = System.currentTimeMillis();
+        long expirationTime = now + getKeysTimeToLive(response.getTimeToLiveMilliseconds());
+        ApplePublicKeysSnapshot fetched;
+        if(response.isNotModified()) {
+            // The keys did not change: keep them, and their verifiers, for another lifetime.
+            fetched = current.withExpiration(now, expirationTime);
+        } else {
+            fetched = buildSnapshot(current, response.getBody(), now, expirationTime, response.getETag(),
+                    response.getLastModified());
+        }
+        snapshot.set(fetched);
+        if(!response.isNotModified()) {
+            reportKeysChange(ApplePublicKeysChange.between(current, fetched));
+        }
+        writeKeysSnapshotFile(fetched);
+        return fetched;
+    }
+
+    private void reportKeysChange(ApplePublicKeysChange change) {
+        lastKeysChange = change;
+        KeysChangeListener listener = keysChangeListener;
+        if(listener != null && change.isChanged()) {
+            try {
+                listener.onKeysChanged(change);
+            } catch (RuntimeException ignored) {
+                // A failing listener must not fail the refresh.
+            }
+        }
+    }
+
+    /**
+     * Builds the public keys and their verifiers from a JWK set in JSON. Keys whose kid, n and e are unchanged
+     * since the previous snapshot reuse its PublicKey and verifier, so only rotated keys are constructed.
+     */
+    private ApplePublicKeysSnapshot buildSnapshot(ApplePublicKeysSnapshot previous, String rawKeys, long fetchTime,
+                                                  long expirationTime, String eTag, String lastModified) throws IDTokenException {
+        try {
+
+            List<PublicKey> publicKeys = new ArrayList<PublicKey>();
+            Map<String, RS256SignatureVerifier> verifiersByKid = new LinkedHashMap<String, RS256SignatureVerifier>();
+            Map<String, String> fingerprintsByKid = new LinkedHashMap<String, String>();
+            AppleJWKSet keys = parseRawPublicKeys(rawKeys);
 
             if(keys == null || CollectionUtils.isEmpty(keys.getKeys())){
                 throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
             }
 
-            String modulus, exponent;
+            String kid, modulus, exponent, fingerprint;
             BigInteger modulusAsBigInt, exponentAsBigInt;
-            KeyFactory factory = KeyFactory.getInstance("RSA");
+            KeyFactory factory = null;
 
             for(ApplePublicKey applePublicKey: keys.getKeys()) {
 
+                kid = applePublicKey.getKid();
                 modulus = applePublicKey.getModulus();
                 exponent = applePublicKey.getExponent();
+                fingerprint = StringUtils.isEmpty(kid) ? null : kid + '.' + modulus + '.' + exponent;
 
-                modulusAsBigInt = new BigInteger(1, Base64.decodeBase64(modulus));
-                exponentAsBigInt = new BigInteger(1, Base64.decodeBase64(exponent));
+                RS256SignatureVerifier verifier = null;
+                if(previous != null && fingerprint != null && fingerprint.equals(previous.getFingerprint(kid))) {
+                    verifier = previous.getSignatureVerifier(kid);
+                }
+                PublicKey publicKey;
+                if(verifier != null) {
+                    publicKey = verifier.getPublicKey();
+                } else {
+                    modulusAsBigInt = new BigInteger(1, Base64.decodeBase64(modulus));
+                    exponentAsBigInt = new BigInteger(1, Base64.decodeBase64(exponent));
 
-                RSAPublicKeySpec spec = new RSAPublicKeySpec(modulusAsBigInt, exponentAsBigInt);
-                applePublicKeys.add(factory.generatePublic(spec));
+                    if(factory == null) {
+                        factory = KeyFactory.getInstance("RSA");
+                    }
+                    RSAPublicKeySpec spec = new RSAPublicKeySpec(modulusAsBigInt, exponentAsBigInt);
+                    publicKey = factory.generatePublic(spec);
+                }
+                publicKeys.add(publicKey);
+                if(fingerprint != null) {
+                    verifiersByKid.put(kid, verifier != null ? verifier : new RS256SignatureVerifier(kid, publicKey));
+                    fingerprintsByKid.put(kid, fingerprint);
+                }
             }
-            applePublicKeys = Collections.unmodifiableList(applePublicKeys);
-            expirationTimeInMillis = System.currentTimeMillis() + refreshSkewMilliseconds;
-            return this;
+            return new ApplePublicKeysSnapshot(publicKeys, verifiersByKid, fetchTime, expirationTime, eTag, lastModified,
+                    rawKeys, fingerprintsByKid);
 
         } catch (NoSuchAlgorithmException e) {
             throw new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR);
@@ -196,16 +1102,105 @@ public class ApplePublicKeysManager {
             throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
         } catch (Exception e) {
             throw new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR, e);
-        } finally {
-            lock.unlock();
         }
     }
 
-    private AppleJWKSet fetchRawPublicKeys() throws Exception {
+    /** Returns the key cache hits and misses, and the refresh count, latency and failures of this manager. */
+    public KeysMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    public KeySource getKeySource() {
+        return keySource;
+    }
+
+    /**
+     * Set the source the keys are fetched from, e.g. a FileKeySource for air-gapped deployments.
+     * The keys already held are kept until the next refresh.
+     * @param keySource source of the keys
+     * @return ApplePublicKeysManager object after setting the key source
+     */
+    public ApplePublicKeysManager setKeySource(KeySource keySource) {
+        if(keySource == null) {
+            throw new IllegalArgumentException("keySource must not be null");
+        }
+        this.keySource = keySource;
+        if(isProxyEnabled) {
+            applyProxy();
+        }
+        return this;
+    }
+
+    public Path getKeysSnapshotFile() {
+        return keysSnapshotFile;
+    }
+
+    /**
+     * Set the file the last good keys are persisted to after each successful refresh, and load it now if no keys
+     * were fetched yet. Keys loaded from the file are used at once, within maxStalenessMilliseconds of their
+     * expiry, while a refresh runs on the key fetch executor.
+     * @param keysSnapshotFile file path, or null to stop persisting the keys
+     * @return ApplePublicKeysManager object after setting the file
+     */
+    public ApplePublicKeysManager setKeysSnapshotFile(Path keysSnapshotFile) {
+        this.keysSnapshotFile = keysSnapshotFile;
+        if(keysSnapshotFile != null) {
+            loadKeysSnapshotFile(keysSnapshotFile);
+        }
+        return this;
+    }
+
+    /**
+     * Loads the keys persisted in the given file, unless keys were already fetched or the persisted keys are
+     * staler than maxStalenessMilliseconds, and starts revalidating them.
+     *
+     * @return true if the keys were loaded
+     */
+    boolean loadKeysSnapshotFile(Path path) {
+        ApplePublicKeysSnapshotFile file = ApplePublicKeysSnapshotFile.read(path);
+        long now = System.currentTimeMillis();
+        if(file == null || snapshot.get() != null || now - file.getExpirationTimeInMillis() > maxStalenessMilliseconds) {
+            return false;
+        }
+        ApplePublicKeysSnapshot loaded;
+        try {
+            loaded = buildSnapshot(null, file.getRawKeys(), file.getFetchTimeInMillis(), file.getExpirationTimeInMillis(),
+                    file.getETag(), file.getLastModified());
+        } catch (IDTokenException e) {
+            return false;
+        }
+        if(!snapshot.compareAndSet(null, loaded)) {
+            return false;
+        }
+        reportKeysChange(ApplePublicKeysChange.between(null, loaded));
+        revalidate(loaded, now);
+        return true;
+    }
+
+    private void writeKeysSnapshotFile(ApplePublicKeysSnapshot fetched) {
+        Path path = keysSnapshotFile;
+        if(path == null || fetched.getRawKeys() == null) {
+            return;
+        }
+        try {
+            new ApplePublicKeysSnapshotFile(fetched.getRawKeys(), fetched.getFetchTimeInMillis(),
+                    fetched.getExpirationTimeInMillis(), fetched.getETag(), fetched.getLastModified()).write(path);
+        } catch (IOException e) {
+            // The keys are in use regardless; only the next warm start falls back to fetching them.
+        }
+    }
+
+    /**
+     * Fetches the keys, conditionally on the validators of the current snapshot if there is one.
+     * Returns a not modified response only when there is a current snapshot to keep.
+     */
+    private AppleKeysResponse fetchRawPublicKeys(ApplePublicKeysSnapshot current) throws IDTokenException {
         try {
-            String response = appleHttpClient.fetchApplePublicKeyResponse();
-            if (!StringUtils.isEmpty(response)) {
-                return new Gson().fromJson(response, AppleJWKSet.class);
+            KeySource source = keySource;
+            AppleKeysResponse response = current == null ? source.fetchKeys(null, null)
+                    : source.fetchKeys(current.getETag(), current.getLastModified());
+            if (response != null && (response.isNotModified() ? current != null : !StringUtils.isEmpty(response.getBody()))) {
+                return response;
             }
         } catch (Exception e) {
             throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
@@ -214,4 +1209,203 @@ public class ApplePublicKeysManager {
        throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
 
     }
+
+    private AppleJWKSet parseRawPublicKeys(String response) throws IDTokenException {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(response));
+            reader.setLenient(true);
+            return AppleJWKSet.read(reader);
+        } catch (Exception e) {
+            throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Builder of managers independent of the singleton. Unless a key source is set, the manager fetches
+     * from the JWKS URI through an HTTP client of its own, configured with the builder's proxy and timeouts.
+     */
+    public static final class Builder {
+
+        private KeySource keySource;
+        private String jwksUri = AppleHttpClient.APPLE_GET_PUBLIC_KEY_ENDPOINT;
+        private String proxyHost;
+        private int proxyPort;
+        private int connectTimeoutMilliseconds = 5000;
+        private int readTimeoutMilliseconds = 5000;
+        private int totalTimeoutMilliseconds = 10000;
+        private int maxResponseBytes = 256 * 1024;
+        private long refreshSkewMilliseconds = 86400000;
+        private long minKeysTimeToLiveMilliseconds = 300000;
+        private long maxKeysTimeToLiveMilliseconds = 86400000;
+        private long maxStalenessMilliseconds = 86400000;
+        private Executor keyFetchExecutor;
+
+        private Builder() {}
+
+        /**
+         * Set the source the keys are fetched from. The HTTP settings of the builder then do not apply.
+         * @param keySource source of the keys, or null to fetch from the JWKS URI
+         * @return Builder object after setting the key source
+         */
+        public Builder setKeySource(KeySource keySource) {
+            this.keySource = keySource;
+            return this;
+        }
+
+        /**
+         * Set the URL of the JWK set the keys are fetched from.
+         * @param jwksUri URL of the JWK set, defaults to Apple's
+         * @return Builder object after setting the JWKS URI
+         */
+        public Builder setJwksUri(String jwksUri) {
+            if (StringUtils.isEmpty(jwksUri)) {
+                throw new IllegalArgumentException("jwksUri must not be empty");
+            }
+            this.jwksUri = jwksUri;
+            return this;
+        }
+
+        /**
+         * Set the proxy the keys are fetched through.
+         * @param proxyHost proxy host, or null to connect directly
+         * @param proxyPort proxy port
+         * @return Builder object after setting the proxy
+         */
+        public Builder setProxy(String proxyHost, int proxyPort) {
+            if (proxyHost != null && proxyPort <= 0) {
+                throw new IllegalArgumentException("proxyPort must be positive");
+            }
+            this.proxyHost = proxyHost;
+            this.proxyPort = proxyPort;
+            return this;
+        }
+
+        /**
+         * Set the milliseconds to wait for a connection to be established.
+         * @param connectTimeoutMilliseconds timeout in milliseconds, defaults to 5000
+         * @return Builder object after setting the timeout
+         */
+        public Builder setConnectTimeoutMilliseconds(int connectTimeoutMilliseconds) {
+            this.connectTimeoutMilliseconds = requirePositive(connectTimeoutMilliseconds, "connectTimeoutMilliseconds");
+            return this;
+        }
+
+        /**
+         * Set the milliseconds to wait for data on an established connection.
+         * @param readTimeoutMilliseconds timeout in milliseconds, defaults to 5000
+         * @return Builder object after setting the timeout
+         */
+        public Builder setReadTimeoutMilliseconds(int readTimeoutMilliseconds) {
+            this.readTimeoutMilliseconds = requirePositive(readTimeoutMilliseconds, "readTimeoutMilliseconds");
+            return this;
+        }
+
+        /**
+         * Set the milliseconds a whole fetch may take.
+         * @param totalTimeoutMilliseconds timeout in milliseconds, defaults to 10000
+         * @return Builder object after setting the timeout
+         */
+        public Builder setTotalTimeoutMilliseconds(int totalTimeoutMilliseconds) {
+            this.totalTimeoutMilliseconds = requirePositive(totalTimeoutMilliseconds, "totalTimeoutMilliseconds");
+            return this;
+        }
+
+        /**
+         * Set the maximum size of a response body.
+         * @param maxResponseBytes size in bytes, defaults to 262144
+         * @return Builder object after setting the size
+         */
+        public Builder setMaxResponseBytes(int maxResponseBytes) {
+            this.maxResponseBytes = requirePositive(maxResponseBytes, "maxResponseBytes");
+            return this;
+        }
+
+        /**
+         * Set the key lifetime used when the response has no caching headers.
+         * @param refreshSkewMilliseconds lifetime in milliseconds, defaults to 86400000
+         * @return Builder object after setting the lifetime
+         */
+        public Builder setRefreshSkewMilliseconds(long refreshSkewMilliseconds) {
+            this.refreshSkewMilliseconds = requirePositive(refreshSkewMilliseconds, "refreshSkewMilliseconds");
+            return this;
+        }
+
+        /**
+         * Set the bounds of the key lifetime taken from the caching headers of the response.
+         * @param minKeysTimeToLiveMilliseconds lower bound in milliseconds, defaults to 300000
+         * @param maxKeysTimeToLiveMilliseconds upper bound in milliseconds, defaults to 86400000
+         * @return Builder object after setting the bounds
+         */
+        public Builder setKeysTimeToLiveMilliseconds(long minKeysTimeToLiveMilliseconds, long maxKeysTimeToLiveMilliseconds) {
+            if (minKeysTimeToLiveMilliseconds < 0 || maxKeysTimeToLiveMilliseconds < minKeysTimeToLiveMilliseconds) {
+                throw new IllegalArgumentException("keys time to live bounds must satisfy 0 <= min <= max");
+            }
+            this.minKeysTimeToLiveMilliseconds = minKeysTimeToLiveMilliseconds;
+            this.maxKeysTimeToLiveMilliseconds = maxKeysTimeToLiveMilliseconds;
+            return this;
+        }
+
+        /**
+         * Set the number of milliseconds past their expiry during which the last good keys are still used.
+         * @param maxStalenessMilliseconds staleness in milliseconds, defaults to 86400000
+         * @return Builder object after setting the staleness
+         */
+        public Builder setMaxStalenessMilliseconds(long maxStalenessMilliseconds) {
+            if (maxStalenessMilliseconds < 0) {
+                throw new IllegalArgumentException("maxStalenessMilliseconds must not be negative");
+            }
+            this.maxStalenessMilliseconds = maxStalenessMilliseconds;
+            return this;
+        }
+
+        /**
+         * Set the executor running key fetches for asynchronous callers. It is not shut down when the manager is closed.
+         * @param keyFetchExecutor executor, or null for a single thread of the manager's own
+         * @return Builder object after setting the executor
+         */
+        public Builder setKeyFetchExecutor(Executor keyFetchExecutor) {
+            this.keyFetchExecutor = keyFetchExecutor;
+            return this;
+        }
+
+        public ApplePublicKeysManager build() {
+            KeySource source = keySource;
+            AppleHttpClient client = null;
+            if (source == null) {
+                client = new AppleHttpClient(jwksUri)
+                        .setConnectTimeoutMilliseconds(connectTimeoutMilliseconds)
+                        .setReadTimeoutMilliseconds(readTimeoutMilliseconds)
+                        .setTotalTimeoutMilliseconds(totalTimeoutMilliseconds)
+                        .setMaxResponseBytes(maxResponseBytes);
+                source = new HttpKeySource(client);
+            }
+            ApplePublicKeysManager manager = new ApplePublicKeysManager(source)
+                    .setRefreshSkewMilliseconds(refreshSkewMilliseconds)
+                    .setMinKeysTimeToLiveMilliseconds(minKeysTimeToLiveMilliseconds)
+                    .setMaxKeysTimeToLiveMilliseconds(maxKeysTimeToLiveMilliseconds)
+                    .setMaxStalenessMilliseconds(maxStalenessMilliseconds)
+                    .setKeyFetchExecutor(keyFetchExecutor);
+            manager.ownedHttpClient = client;
+            if (proxyHost != null && keySource == null) {
+                manager.proxyHost = proxyHost;
+                manager.proxyPort = proxyPort;
+                manager.setProxyEnabled(true);
+            }
+            return manager;
+        }
+
+        private static int requirePositive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return value;
+        }
+
+        private static long requirePositive(long value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return value;
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package org.ebayopensource.apple.idtoken;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Immutable set of Apple public keys as fetched at one point in time. The manager publishes a new
+ * snapshot on every refresh, so readers never see a partially updated key set and never need a lock.
+ */
+final class ApplePublicKeysSnapshot {
+
+    private final List<PublicKey> publicKeys;
+
+    /** Signature verifiers of the public keys, indexed by their key identifier (kid). */
+    private final Map<String, RS256SignatureVerifier> signatureVerifiersByKid;
+
+    private final long fetchTimeInMillis;
+    private final long expirationTimeInMillis;
+
+    /** Validators of the response the keys came from, sent back on refresh for a conditional GET. */
+    private final String eTag;
+    private final String lastModified;
+
+    /** JWK set in JSON the keys were built from, kept to persist the snapshot; null if unknown. */
+    private final String rawKeys;
+
+    /** Fingerprint (kid, n and e) of each key with an identifier, indexed by kid, to tell unchanged keys on refresh. */
+    private final Map<String, String> fingerprintsByKid;
+
+    ApplePublicKeysSnapshot(List<PublicKey> publicKeys, Map<String, RS256SignatureVerifier> signatureVerifiersByKid,
+                            long fetchTimeInMillis, long expirationTimeInMillis) {
+        this(publicKeys, signatureVerifiersByKid, fetchTimeInMillis, expirationTimeInMillis, null, null);
+    }
+
+    ApplePublicKeysSnapshot(List<PublicKey> publicKeys, Map<String, RS256SignatureVerifier> signatureVerifiersByKid,
+                            long fetchTimeInMillis, long expirationTimeInMillis, String eTag, String lastModified) {
+        this(publicKeys, signatureVerifiersByKid, fetchTimeInMillis, expirationTimeInMillis, eTag, lastModified, null,
+                Collections.<String, String>emptyMap());
+    }
+
+    ApplePublicKeysSnapshot(List<PublicKey> publicKeys, Map<String, RS256SignatureVerifier> signatureVerifiersByKid,
+                            long fetchTimeInMillis, long expirationTimeInMillis, String eTag, String lastModified,
+                            String rawKeys, Map<String, String> fingerprintsByKid) {
+        this.publicKeys = Collections.unmodifiableList(publicKeys);
+        this.signatureVerifiersByKid = Collections.unmodifiableMap(signatureVerifiersByKid);
+        this.fetchTimeInMillis = fetchTimeInMillis;
+        this.expirationTimeInMillis = expirationTimeInMillis;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.rawKeys = rawKeys;
+        this.fingerprintsByKid = Collections.unmodifiableMap(fingerprintsByKid);
+    }
+
+    /** Returns a snapshot of the same keys and verifiers, revalidated at fetchTimeInMillis. */
+    ApplePublicKeysSnapshot withExpiration(long fetchTimeInMillis, long expirationTimeInMillis) {
+        return new ApplePublicKeysSnapshot(publicKeys, signatureVerifiersByKid, fetchTimeInMillis, expirationTimeInMillis,
+                eTag, lastModified, rawKeys, fingerprintsByKid);
+    }
+
+    List<PublicKey> getPublicKeys() {
+        return publicKeys;
+    }
+
+    Map<String, RS256SignatureVerifier> getSignatureVerifiersByKid() {
+        return signatureVerifiersByKid;
+    }
+
+    /** Returns the signature verifier of the key with the given identifier, or null if there is none. */
+    RS256SignatureVerifier getSignatureVerifier(String kid) {
+        return kid == null ? null : signatureVerifiersByKid.get(kid);
+    }
+
+    long getFetchTimeInMillis() {
+        return fetchTimeInMillis;
+    }
+
+    long getExpirationTimeInMillis() {
+        return expirationTimeInMillis;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    String getRawKeys() {
+        return rawKeys;
+    }
+
+    Map<String, String> getFingerprintsByKid() {
+        return fingerprintsByKid;
+    }
+
+    /** Returns the fingerprint of the key with the given identifier, or null if there is none. */
+    String getFingerprint(String kid) {
+        return kid == null ? null : fingerprintsByKid.get(kid);
+    }
+
+    boolean isExpired(long now) {
+        return now > expirationTimeInMillis;
+    }
+}
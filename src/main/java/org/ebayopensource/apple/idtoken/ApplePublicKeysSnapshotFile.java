@@ -0,0 +1,157 @@
+package org.ebayopensource.apple.idtoken;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Last good JWK set as fetched from Apple, with its fetch time, expiration time and validators,
+ * as persisted on disk so that a restarted JVM can verify tokens before reaching Apple.
+ */
+final class ApplePublicKeysSnapshotFile {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String rawKeys;
+    private final long fetchTimeInMillis;
+    private final long expirationTimeInMillis;
+    private final String eTag;
+    private final String lastModified;
+
+    ApplePublicKeysSnapshotFile(String rawKeys, long fetchTimeInMillis, long expirationTimeInMillis,
+                                String eTag, String lastModified) {
+        this.rawKeys = rawKeys;
+        this.fetchTimeInMillis = fetchTimeInMillis;
+        this.expirationTimeInMillis = expirationTimeInMillis;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    String getRawKeys() {
+        return rawKeys;
+    }
+
+    long getFetchTimeInMillis() {
+        return fetchTimeInMillis;
+    }
+
+    long getExpirationTimeInMillis() {
+        return expirationTimeInMillis;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Function that reads a snapshot file.
+     *
+     * @param path file to read
+     * @return the snapshot, or null if the file does not exist or is not a complete snapshot
+     */
+    static ApplePublicKeysSnapshotFile read(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        String rawKeys = null;
+        long fetchTime = -1;
+        long expirationTime = -1;
+        String eTag = null;
+        String lastModified = null;
+        try (Reader fileReader = Files.newBufferedReader(path, UTF_8)) {
+            JsonReader reader = new JsonReader(fileReader);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("keys".equals(name)) {
+                    rawKeys = reader.nextString();
+                } else if ("fetchTime".equals(name)) {
+                    fetchTime = reader.nextLong();
+                } else if ("expirationTime".equals(name)) {
+                    expirationTime = reader.nextLong();
+                } else if ("eTag".equals(name)) {
+                    eTag = reader.nextString();
+                } else if ("lastModified".equals(name)) {
+                    lastModified = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // Covers truncated or hand-edited files: Gson reports type mismatches as IllegalStateException.
+            return null;
+        }
+        if (rawKeys == null || fetchTime < 0 || expirationTime < 0) {
+            return null;
+        }
+        return new ApplePublicKeysSnapshotFile(rawKeys, fetchTime, expirationTime, eTag, lastModified);
+    }
+
+    /**
+     * Function that writes the snapshot to a temporary file next to the given path, then moves it
+     * in place atomically, so that readers never see a partially written file.
+     *
+     * @param path file to write
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (Writer fileWriter = Files.newBufferedWriter(temporary, UTF_8)) {
+                JsonWriter writer = new JsonWriter(fileWriter);
+                writer.beginObject();
+                writer.name("fetchTime").value(fetchTimeInMillis);
+                writer.name("expirationTime").value(expirationTimeInMillis);
+                writer.name("eTag").value(eTag);
+                writer.name("lastModified").value(lastModified);
+                writer.name("keys").value(rawKeys);
+                writer.endObject();
+                writer.flush();
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
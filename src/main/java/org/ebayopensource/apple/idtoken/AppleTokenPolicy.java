@@ -0,0 +1,170 @@
+package org.ebayopensource.apple.idtoken;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Immutable set of rules an ID token's claims and header are checked against.
+ * A policy is built once, typically at server start, and shared by every validation.
+ *
+ * <pre>
+ * AppleTokenPolicy policy = AppleTokenPolicy.builder()
+ *         .setAudiences(Arrays.asList("com.xyzCompany.app", "com.xyzCompany.webapp"))
+ *         .setClockSkewMilliseconds(30000)
+ *         .build();
+ * AppleIDTokenValidator validator = new AppleIDTokenValidator(policy);
+ * </pre>
+ */
+public final class AppleTokenPolicy {
+
+    public static final String APPLE_ISSUER = "https://appleid.apple.com";
+    public static final String RS256 = "RS256";
+
+    /** Algorithms the signature verifier supports. */
+    private static final Set<String> SUPPORTED_ALGORITHMS = Collections.singleton(RS256);
+
+    /** Policy accepting any audience from Apple's issuer, signed with RS256, without clock skew. */
+    public static final AppleTokenPolicy DEFAULT = builder().build();
+
+    private final String issuer;
+
+    /** Accepted aud claims, or null if any audience is accepted. */
+    private final Set<String> audiences;
+
+    private final Set<String> allowedAlgorithms;
+    private final long clockSkewMilliseconds;
+
+    private AppleTokenPolicy(Builder builder) {
+        this.issuer = builder.issuer;
+        this.audiences = builder.audiences == null ? null : Collections.unmodifiableSet(new HashSet<String>(builder.audiences));
+        this.allowedAlgorithms = Collections.unmodifiableSet(new HashSet<String>(builder.allowedAlgorithms));
+        this.clockSkewMilliseconds = builder.clockSkewMilliseconds;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /** Returns the accepted aud claims, or null if any audience is accepted. */
+    public Set<String> getAudiences() {
+        return audiences;
+    }
+
+    public Set<String> getAllowedAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    public long getClockSkewMilliseconds() {
+        return clockSkewMilliseconds;
+    }
+
+    /** Returns true if any audience is accepted, or one of the token's audiences is. */
+    boolean isAudienceAllowed(List<String> tokenAudiences) {
+        if (audiences == null) {
+            return true;
+        }
+        for (String tokenAudience : tokenAudiences) {
+            if (tokenAudience != null && audiences.contains(tokenAudience)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isAlgorithmAllowed(String tokenAlgorithm) {
+        return tokenAlgorithm != null && allowedAlgorithms.contains(tokenAlgorithm);
+    }
+
+    /** Returns true if the token expired before now, allowing for the clock skew. */
+    boolean isExpired(long expiryTimeInMillis, long now) {
+        return now - clockSkewMilliseconds > expiryTimeInMillis;
+    }
+
+    public static final class Builder {
+
+        private String issuer = APPLE_ISSUER;
+        private Collection<String> audiences;
+        private Collection<String> allowedAlgorithms = SUPPORTED_ALGORITHMS;
+        private long clockSkewMilliseconds;
+
+        private Builder() {}
+
+        /**
+         * Set the issuer the iss claim must be equal to.
+         * @param issuer issuer, defaults to https://appleid.apple.com
+         * @return Builder object after setting the issuer
+         */
+        public Builder setIssuer(String issuer) {
+            if (issuer == null || issuer.isEmpty()) {
+                throw new IllegalArgumentException("issuer must not be empty");
+            }
+            this.issuer = issuer;
+            return this;
+        }
+
+        /**
+         * Set the client ids (app bundle ids and service ids) the aud claim must be one of.
+         * @param audiences accepted client ids, or null to accept any audience
+         * @return Builder object after setting the audiences
+         */
+        public Builder setAudiences(Collection<String> audiences) {
+            this.audiences = audiences;
+            return this;
+        }
+
+        /**
+         * Set the algorithms the alg header may name. Only RS256 is supported.
+         * @param allowedAlgorithms accepted algorithms, defaults to RS256
+         * @return Builder object after setting the algorithms
+         */
+        public Builder setAllowedAlgorithms(Collection<String> allowedAlgorithms) {
+            if (allowedAlgorithms == null || allowedAlgorithms.isEmpty()
+                    || !SUPPORTED_ALGORITHMS.containsAll(allowedAlgorithms)) {
+                throw new IllegalArgumentException("allowedAlgorithms must be a non-empty subset of " + SUPPORTED_ALGORITHMS);
+            }
+            this.allowedAlgorithms = allowedAlgorithms;
+            return this;
+        }
+
+        /**
+         * Set the tolerance applied to the exp claim for clock differences with Apple's servers.
+         * @param clockSkewMilliseconds tolerance in milliseconds, defaults to 0
+         * @return Builder object after setting the clock skew
+         */
+        public Builder setClockSkewMilliseconds(long clockSkewMilliseconds) {
+            if (clockSkewMilliseconds < 0) {
+                throw new IllegalArgumentException("clockSkewMilliseconds must not be negative");
+            }
+            this.clockSkewMilliseconds = clockSkewMilliseconds;
+            return this;
+        }
+
+        public AppleTokenPolicy build() {
+            return new AppleTokenPolicy(this);
+        }
+    }
+}
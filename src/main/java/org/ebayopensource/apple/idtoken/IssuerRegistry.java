@@ -0,0 +1,216 @@
+package org.ebayopensource.apple.idtoken;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Issuers whose ID tokens a validator accepts, indexed by issuer so that a token is routed to its policy
+ * and keys with a single lookup of its unverified iss claim.
+ *
+ * An issuer may also be reached through aliases, e.g. Google's accounts.google.com next to
+ * https://accounts.google.com, and through templates whose {placeholders} match one path segment, e.g.
+ * Microsoft's https://login.microsoftonline.com/{tenantid}/v2.0. Aliases and templates share the issuer's
+ * policy and key cache. Templates are only tried when no issuer or alias equals the iss claim.
+ *
+ * <pre>
+ * IssuerRegistry registry = IssuerRegistry.builder()
+ *         .addApple()
+ *         .addIssuer(TrustedIssuer.forJwksUri(googlePolicy, "https://www.googleapis.com/oauth2/v3/certs"))
+ *         .build();
+ * AppleIDTokenValidator validator = new AppleIDTokenValidator(registry);
+ * </pre>
+ */
+public final class IssuerRegistry {
+
+    /** Placeholder of an issuer template, matching one path segment of the iss claim. */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{[^{}/]+\\}");
+
+    /** Registry of Apple alone, with the default policy and the shared ApplePublicKeysManager. */
+    public static final IssuerRegistry DEFAULT = builder().addApple().build();
+
+    private final Map<String, TrustedIssuer> issuers;
+
+    /** Issuers indexed by their exact issuer and by their exact aliases. */
+    private final Map<String, TrustedIssuer> issuersByIss;
+
+    private final List<IssuerTemplate> templates;
+
+    /** First issuer added, whose policy the validator reports as its own. */
+    private final TrustedIssuer defaultIssuer;
+
+    private IssuerRegistry(Builder builder) {
+        this.issuers = Collections.unmodifiableMap(new LinkedHashMap<String, TrustedIssuer>(builder.issuers));
+        this.issuersByIss = new HashMap<String, TrustedIssuer>(builder.issuersByIss);
+        this.templates = new ArrayList<IssuerTemplate>(builder.templates.values());
+        this.defaultIssuer = builder.issuers.values().iterator().next();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Returns the issuer of the given iss claim, or null if it is not trusted. */
+    public TrustedIssuer getIssuer(String issuer) {
+        if (issuer == null) {
+            return null;
+        }
+        TrustedIssuer trustedIssuer = issuersByIss.get(issuer);
+        if (trustedIssuer != null) {
+            return trustedIssuer;
+        }
+        for (int i = 0; i < templates.size(); i++) {
+            IssuerTemplate template = templates.get(i);
+            if (template.pattern.matcher(issuer).matches()) {
+                return template.issuer;
+            }
+        }
+        return null;
+    }
+
+    /** Returns each trusted issuer once, whatever its aliases, in the order they were added. */
+    public Collection<TrustedIssuer> getIssuers() {
+        return issuers.values();
+    }
+
+    public TrustedIssuer getDefaultIssuer() {
+        return defaultIssuer;
+    }
+
+    static boolean isTemplate(String issuer) {
+        return PLACEHOLDER.matcher(issuer).find();
+    }
+
+    /** Compiles a template into a pattern quoting everything but its placeholders, which match one path segment. */
+    static Pattern compileTemplate(String template) {
+        StringBuilder regex = new StringBuilder();
+        Matcher placeholder = PLACEHOLDER.matcher(template);
+        int start = 0;
+        while (placeholder.find()) {
+            regex.append(Pattern.quote(template.substring(start, placeholder.start()))).append("[^/]+");
+            start = placeholder.end();
+        }
+        regex.append(Pattern.quote(template.substring(start)));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static final class IssuerTemplate {
+
+        private final Pattern pattern;
+        private final TrustedIssuer issuer;
+
+        private IssuerTemplate(String template, TrustedIssuer issuer) {
+            this.pattern = compileTemplate(template);
+            this.issuer = issuer;
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<String, TrustedIssuer> issuers = new LinkedHashMap<String, TrustedIssuer>();
+        private final Map<String, TrustedIssuer> issuersByIss = new HashMap<String, TrustedIssuer>();
+        private final Map<String, IssuerTemplate> templates = new LinkedHashMap<String, IssuerTemplate>();
+
+        private Builder() {}
+
+        /**
+         * Add Apple, with the default policy and the shared ApplePublicKeysManager.
+         * @return Builder object after adding Apple
+         */
+        public Builder addApple() {
+            return addApple(AppleTokenPolicy.DEFAULT);
+        }
+
+        /**
+         * Add Apple, with the given policy and the shared ApplePublicKeysManager.
+         * @param tokenPolicy policy of Apple's tokens
+         * @return Builder object after adding Apple
+         */
+        public Builder addApple(AppleTokenPolicy tokenPolicy) {
+            return addIssuer(new TrustedIssuer(tokenPolicy, ApplePublicKeysManager.getApplePublicKeysManager()));
+        }
+
+        /**
+         * Add an issuer. Each issuer may only be added once. An issuer containing {placeholders} is a template.
+         * @param issuer issuer to trust
+         * @return Builder object after adding the issuer
+         */
+        public Builder addIssuer(TrustedIssuer issuer) {
+            if (issuer == null) {
+                throw new IllegalArgumentException("issuer must not be null");
+            }
+            route(issuer.getIssuer(), issuer);
+            issuers.put(issuer.getIssuer(), issuer);
+            return this;
+        }
+
+        /**
+         * Route tokens whose iss claim is the given alias to an issuer already added, with its policy and keys.
+         * @param issuer issuer already added
+         * @param alias other iss value of the issuer, e.g. accounts.google.com; a template if it contains {placeholders}
+         * @return Builder object after adding the alias
+         */
+        public Builder addAlias(String issuer, String alias) {
+            TrustedIssuer trustedIssuer = issuer == null ? null : issuers.get(issuer);
+            if (trustedIssuer == null) {
+                throw new IllegalArgumentException("issuer " + issuer + " must be added before its aliases");
+            }
+            if (alias == null || alias.isEmpty()) {
+                throw new IllegalArgumentException("alias must not be empty");
+            }
+            route(alias, trustedIssuer);
+            return this;
+        }
+
+        private void route(String iss, TrustedIssuer issuer) {
+            if (issuersByIss.containsKey(iss) || templates.containsKey(iss)) {
+                throw new IllegalArgumentException("issuer " + iss + " is already registered");
+            }
+            if (isTemplate(iss)) {
+                templates.put(iss, new IssuerTemplate(iss, issuer));
+            } else {
+                issuersByIss.put(iss, issuer);
+            }
+        }
+
+        /**
+         * Add an issuer.
+         * @param tokenPolicy policy whose issuer the iss claim is routed by
+         * @param keysManager manager of the keys the issuer signs its tokens with
+         * @return Builder object after adding the issuer
+         */
+        public Builder addIssuer(AppleTokenPolicy tokenPolicy, ApplePublicKeysManager keysManager) {
+            return addIssuer(new TrustedIssuer(tokenPolicy, keysManager));
+        }
+
+        public IssuerRegistry build() {
+            if (issuers.isEmpty()) {
+                throw new IllegalArgumentException("at least one issuer must be added");
+            }
+            return new IssuerRegistry(this);
+        }
+    }
+}
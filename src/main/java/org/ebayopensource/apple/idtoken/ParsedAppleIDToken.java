@@ -0,0 +1,167 @@
+package org.ebayopensource.apple.idtoken;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.ebayopensource.apple.idtoken.entities.AppleIDTokenHeader;
+import org.ebayopensource.apple.idtoken.entities.AppleUserInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * ID token split into its JWS segments and decoded once, so that structural checks,
+ * claim checks and signature verification all work on the same object.
+ */
+final class ParsedAppleIDToken {
+
+    private static final char SEPARATOR_PERIOD = '.';
+    private static final int MIN_ID_TOKEN_LENGTH = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Returned by decode for a well-formed token whose header or payload is not a JSON object. */
+    static final ParsedAppleIDToken UNDECODABLE = new ParsedAppleIDToken(null, -1, null, null, null);
+
+    private final String idToken;
+
+    /** Offset of the period separating payload and signature. */
+    private final int payloadEnd;
+
+    private final AppleIDTokenHeader header;
+    private final AppleUserInfo userInfo;
+    private final byte[] signature;
+
+    private ParsedAppleIDToken(String idToken, int payloadEnd, AppleIDTokenHeader header, AppleUserInfo userInfo,
+                               byte[] signature) {
+        this.idToken = idToken;
+        this.payloadEnd = payloadEnd;
+        this.header = header;
+        this.userInfo = userInfo;
+        this.signature = signature;
+    }
+
+    /**
+     * Function that splits and decodes an ID token in a single scan.
+     *
+     * @param idToken Input ID token
+     * @return parsed token, null if the token does not have three non-empty base64url segments,
+     * or UNDECODABLE if a segment cannot be decoded
+     */
+    static ParsedAppleIDToken decode(String idToken) {
+        if (idToken == null || idToken.length() < MIN_ID_TOKEN_LENGTH) return null;
+
+        int headerEnd = -1;
+        int payloadEnd = -1;
+        for (int i = 0, length = idToken.length(); i < length; i++) {
+            char c = idToken.charAt(i);
+            if (c == SEPARATOR_PERIOD) {
+                if (headerEnd < 0) {
+                    headerEnd = i;
+                } else if (payloadEnd < 0) {
+                    payloadEnd = i;
+                } else {
+                    return null;
+                }
+            } else if (!isBase64UrlCharacter(c)) {
+                return null;
+            }
+        }
+        if (headerEnd <= 0 || payloadEnd <= headerEnd + 1 || payloadEnd == idToken.length() - 1) {
+            return null;
+        }
+
+        AppleIDTokenHeader header;
+        AppleUserInfo userInfo;
+        try {
+            header = AppleIDTokenHeader.read(segmentReader(idToken, 0, headerEnd));
+            userInfo = AppleUserInfo.read(segmentReader(idToken, headerEnd + 1, payloadEnd));
+        } catch (IOException e) {
+            return UNDECODABLE;
+        } catch (IllegalStateException e) {
+            return UNDECODABLE;
+        } catch (JsonParseException e) {
+            return UNDECODABLE;
+        }
+        if (header == null || userInfo == null) return UNDECODABLE;
+
+        byte[] signature = Base64.decodeBase64(idToken.substring(payloadEnd + 1));
+        return new ParsedAppleIDToken(idToken, payloadEnd, header, userInfo, signature);
+    }
+
+    /** Returns a lenient reader over the UTF-8 bytes of a decoded segment, without building an intermediate String. */
+    private static JsonReader segmentReader(String idToken, int start, int end) {
+        byte[] decoded = Base64.decodeBase64(idToken.substring(start, end));
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(decoded), UTF_8));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static boolean isBase64UrlCharacter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '=';
+    }
+
+    String getIdToken() {
+        return idToken;
+    }
+
+    AppleIDTokenHeader getHeader() {
+        return header;
+    }
+
+    AppleUserInfo getUserInfo() {
+        return userInfo;
+    }
+
+    /**
+     * Returns the JWS signing input, i.e. the ASCII bytes of header.payload.
+     * decode only accepts base64url characters, so each char maps to one byte.
+     */
+    byte[] getSigningInput() {
+        byte[] signingInput = new byte[payloadEnd];
+        for (int i = 0; i < payloadEnd; i++) {
+            signingInput[i] = (byte) idToken.charAt(i);
+        }
+        return signingInput;
+    }
+
+    /** Returns the decoded signature bytes. */
+    byte[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns the exp claim, which Apple sets in seconds since the epoch, in milliseconds,
+     * or -1 if the claim is missing or not numeric.
+     */
+    long getExpiryTimeInMillis() {
+        String expiryTime = userInfo.getExpiryTime();
+        if (!StringUtils.isNumeric(expiryTime) || StringUtils.isEmpty(expiryTime)) return -1;
+        try {
+            long expiryTimeInSeconds = Long.parseLong(expiryTime);
+            return expiryTimeInSeconds > Long.MAX_VALUE / 1000L ? Long.MAX_VALUE : expiryTimeInSeconds * 1000L;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
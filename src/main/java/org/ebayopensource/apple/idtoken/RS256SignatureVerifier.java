@@ -0,0 +1,114 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+import org.ebayopensource.apple.idtoken.util.IDTokenException;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * RS256 verifier bound to one Apple public key.
+ *
+ * Signature objects are initialized with the key once and pooled, since a Signature is reset
+ * to its initialized state after each verify and can be reused, but not shared between threads.
+ */
+final class RS256SignatureVerifier {
+
+    private static final String JCA_SIGNING_ALGORITHM = "SHA256withRSA";
+    private static final int MAX_POOLED_SIGNATURES = Math.max(4, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final String kid;
+    private final PublicKey publicKey;
+
+    /** Length in bytes of an RS256 signature made with this key, or -1 if it is not known. */
+    private final int signatureLength;
+
+    private final Queue<Signature> pool = new ConcurrentLinkedQueue<Signature>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    RS256SignatureVerifier(String kid, PublicKey publicKey) {
+        this.kid = kid;
+        this.publicKey = publicKey;
+        this.signatureLength = publicKey instanceof RSAPublicKey
+                ? (((RSAPublicKey) publicKey).getModulus().bitLength() + 7) / 8 : -1;
+    }
+
+    String getKid() {
+        return kid;
+    }
+
+    PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Function that verifies the RS256 signature of header.payload.
+     *
+     * @param signingInput ASCII bytes of header.payload
+     * @param signature decoded signature bytes
+     * @return true if the signature matches, false if it does not or is malformed
+     * @throws IDTokenException if the key cannot be used for RS256
+     */
+    boolean verify(byte[] signingInput, byte[] signature) throws IDTokenException {
+        // A signature of the wrong length can never match; rejecting it here avoids a SignatureException.
+        if (signature == null || (signatureLength > 0 && signature.length != signatureLength)) {
+            return false;
+        }
+        Signature verifier = pool.poll();
+        if (verifier == null) {
+            verifier = newSignature();
+        } else {
+            pooled.decrementAndGet();
+        }
+        boolean verified;
+        try {
+            verifier.update(signingInput);
+            verified = verifier.verify(signature);
+        } catch (SignatureException e) {
+            // The Signature state is unknown after a failure, so it is not returned to the pool.
+            return false;
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED_SIGNATURES) {
+            pool.offer(verifier);
+        } else {
+            pooled.decrementAndGet();
+        }
+        return verified;
+    }
+
+    private Signature newSignature() throws IDTokenException {
+        try {
+            Signature verifier = Signature.getInstance(JCA_SIGNING_ALGORITHM);
+            verifier.initVerify(publicKey);
+            return verifier;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IDTokenException(IDTokenErrorEnum.UNSUPPORTED_ID_TOKEN);
+        } catch (InvalidKeyException e) {
+            throw new IDTokenException(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR);
+        }
+    }
+}
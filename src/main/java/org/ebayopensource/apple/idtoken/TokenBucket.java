@@ -0,0 +1,63 @@
+package org.ebayopensource.apple.idtoken;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Token bucket holding up to capacity tokens, refilled with one token every refillIntervalMilliseconds.
+ * Only consulted on the rare paths that may call Apple, so a plain monitor is enough.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final long refillIntervalMilliseconds;
+
+    private int tokens;
+    private long lastRefillTimeInMillis;
+
+    TokenBucket(int capacity, long refillIntervalMilliseconds, long now) {
+        if (capacity <= 0 || refillIntervalMilliseconds <= 0) {
+            throw new IllegalArgumentException("capacity and refillIntervalMilliseconds must be positive");
+        }
+        this.capacity = capacity;
+        this.refillIntervalMilliseconds = refillIntervalMilliseconds;
+        this.tokens = capacity;
+        this.lastRefillTimeInMillis = now;
+    }
+
+    /** Takes one token if there is one. */
+    synchronized boolean tryAcquire(long now) {
+        long refills = (now - lastRefillTimeInMillis) / refillIntervalMilliseconds;
+        if (refills > 0) {
+            tokens = (int) Math.min(capacity, tokens + refills);
+            lastRefillTimeInMillis = tokens == capacity ? now : lastRefillTimeInMillis + refills * refillIntervalMilliseconds;
+        }
+        if (tokens == 0) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getRefillIntervalMilliseconds() {
+        return refillIntervalMilliseconds;
+    }
+}
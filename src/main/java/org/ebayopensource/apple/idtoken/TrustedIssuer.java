@@ -0,0 +1,99 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.keysource.DiscoveryKeySource;
+import org.ebayopensource.apple.idtoken.keysource.KeySource;
+
+import java.util.List;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Issuer whose ID tokens are accepted: the policy its tokens are checked against and the manager of its keys.
+ * Each issuer should have its own manager, so that its keys are cached and refreshed independently.
+ */
+public final class TrustedIssuer {
+
+    private final AppleTokenPolicy tokenPolicy;
+    private final ApplePublicKeysManager keysManager;
+
+    /**
+     * @param tokenPolicy policy whose issuer the iss claim is routed by
+     * @param keysManager manager of the keys the issuer signs its tokens with
+     */
+    public TrustedIssuer(AppleTokenPolicy tokenPolicy, ApplePublicKeysManager keysManager) {
+        if (tokenPolicy == null || keysManager == null) {
+            throw new IllegalArgumentException("tokenPolicy and keysManager must not be null");
+        }
+        this.tokenPolicy = tokenPolicy;
+        this.keysManager = keysManager;
+    }
+
+    /**
+     * Creates an issuer whose keys are fetched from its JWK set endpoint, by a manager of its own.
+     *
+     * @param tokenPolicy policy of the issuer, e.g. with issuer https://accounts.google.com
+     * @param jwksUri URL of the issuer's JWK set, e.g. https://www.googleapis.com/oauth2/v3/certs
+     * @return the issuer
+     */
+    public static TrustedIssuer forJwksUri(AppleTokenPolicy tokenPolicy, String jwksUri) {
+        return new TrustedIssuer(tokenPolicy, ApplePublicKeysManager.builder().setJwksUri(jwksUri).build());
+    }
+
+    /**
+     * Creates an issuer whose keys are fetched from the jwks_uri of its OpenID discovery document, by a manager
+     * of its own.
+     *
+     * @param tokenPolicy policy of the issuer, whose issuer the discovery document is fetched from
+     * @return the issuer
+     */
+    public static TrustedIssuer forDiscovery(AppleTokenPolicy tokenPolicy) {
+        return new TrustedIssuer(tokenPolicy, ApplePublicKeysManager.builder()
+                .setKeySource(new DiscoveryKeySource(tokenPolicy.getIssuer()))
+                .build());
+    }
+
+    /**
+     * Returns true if tokens of this issuer may be signed with the given algorithm: it must be allowed by the
+     * policy and, once the issuer's discovery document lists its id_token_signing_alg_values_supported, be one
+     * of them too.
+     */
+    boolean isAlgorithmAllowed(String tokenAlgorithm) {
+        if (!tokenPolicy.isAlgorithmAllowed(tokenAlgorithm)) {
+            return false;
+        }
+        KeySource keySource = keysManager.getKeySource();
+        if (!(keySource instanceof DiscoveryKeySource)) {
+            return true;
+        }
+        List<String> discoveredAlgorithms = ((DiscoveryKeySource) keySource).getIdTokenSigningAlgorithms();
+        return discoveredAlgorithms == null || discoveredAlgorithms.isEmpty()
+                || discoveredAlgorithms.contains(tokenAlgorithm);
+    }
+
+    public String getIssuer() {
+        return tokenPolicy.getIssuer();
+    }
+
+    public AppleTokenPolicy getTokenPolicy() {
+        return tokenPolicy;
+    }
+
+    public ApplePublicKeysManager getKeysManager() {
+        return keysManager;
+    }
+}
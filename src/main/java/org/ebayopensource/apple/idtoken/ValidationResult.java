@@ -0,0 +1,86 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.entities.AppleUserInfo;
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Outcome of validating one ID token: whether it is valid, the user information
+ * it carries and, for an invalid token, the reason it was rejected.
+ */
+public final class ValidationResult {
+
+    private final boolean valid;
+    private final AppleUserInfo appleUserInfo;
+    private final IDTokenErrorEnum errorEnum;
+
+    /** Whether the boolean API reports this failure by throwing IDTokenException rather than returning false. */
+    private final boolean exceptional;
+
+    /** Failures carry no per-token state, so one instance per reason is shared: rejecting allocates nothing. */
+    private static final ValidationResult[] FAILURES = new ValidationResult[IDTokenErrorEnum.values().length];
+    private static final ValidationResult[] EXCEPTIONAL_FAILURES = new ValidationResult[IDTokenErrorEnum.values().length];
+
+    static {
+        for (IDTokenErrorEnum errorEnum : IDTokenErrorEnum.values()) {
+            FAILURES[errorEnum.ordinal()] = new ValidationResult(false, null, errorEnum, false);
+            EXCEPTIONAL_FAILURES[errorEnum.ordinal()] = new ValidationResult(false, null, errorEnum, true);
+        }
+    }
+
+    private ValidationResult(boolean valid, AppleUserInfo appleUserInfo, IDTokenErrorEnum errorEnum, boolean exceptional) {
+        this.valid = valid;
+        this.appleUserInfo = appleUserInfo;
+        this.errorEnum = errorEnum;
+        this.exceptional = exceptional;
+    }
+
+    static ValidationResult success(AppleUserInfo appleUserInfo) {
+        return new ValidationResult(true, appleUserInfo, null, false);
+    }
+
+    /** Returns the shared result of a token rejected for the given reason. */
+    static ValidationResult failure(IDTokenErrorEnum errorEnum) {
+        return FAILURES[errorEnum.ordinal()];
+    }
+
+    /** Returns the shared result of a failure that verifyAppleIDToken reports by throwing IDTokenException. */
+    static ValidationResult exceptionalFailure(IDTokenErrorEnum errorEnum) {
+        return EXCEPTIONAL_FAILURES[errorEnum.ordinal()];
+    }
+
+    boolean isExceptional() {
+        return exceptional;
+    }
+
+    /** Returns true if the token signature and claims are valid. */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /** Returns the user information of a valid token, null otherwise. */
+    public AppleUserInfo getAppleUserInfo() {
+        return appleUserInfo;
+    }
+
+    /** Returns the reason an invalid token was rejected, null for a valid token. */
+    public IDTokenErrorEnum getErrorEnum() {
+        return errorEnum;
+    }
+}
@@ -0,0 +1,97 @@
+package org.ebayopensource.apple.idtoken.cache;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Bounded, time-limited cache of ID tokens rejected by signature verification.
+ *
+ * Entries are keyed by the SHA-256 digest of the token, so that a token replayed after a failed
+ * verification is rejected again without any signature verification nor key refresh.
+ */
+public class RejectedTokenCache {
+
+    /** Maximum number of tokens held by the cache. */
+    private final int maxEntries;
+
+    /** Number of milliseconds a rejected token is remembered for. */
+    private final long maxAgeMilliseconds;
+
+    /** Rejection reason of each cached token, keyed by token digest. */
+    private final ExpiringEntries<IDTokenErrorEnum> entries;
+
+    private final AtomicLong rejectionCount = new AtomicLong();
+
+    public RejectedTokenCache(int maxEntries, long maxAgeMilliseconds) {
+        if (maxEntries <= 0 || maxAgeMilliseconds <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxAgeMilliseconds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxAgeMilliseconds = maxAgeMilliseconds;
+        this.entries = new ExpiringEntries<IDTokenErrorEnum>(maxEntries);
+    }
+
+    /**
+     * Function that returns the reason the ID token was previously rejected.
+     *
+     * @param idToken Input ID token
+     * @return rejection reason, or null if the token is not cached
+     */
+    public IDTokenErrorEnum getRejection(String idToken) {
+        IDTokenErrorEnum errorEnum = entries.get(ExpiringEntries.digest(idToken), System.currentTimeMillis());
+        if (errorEnum != null) {
+            rejectionCount.incrementAndGet();
+        }
+        return errorEnum;
+    }
+
+    /**
+     * Function that remembers the ID token as rejected for maxAgeMilliseconds.
+     *
+     * @param idToken Input ID token
+     * @param errorEnum rejection reason
+     */
+    public void reject(String idToken, IDTokenErrorEnum errorEnum) {
+        entries.put(ExpiringEntries.digest(idToken), errorEnum, System.currentTimeMillis() + maxAgeMilliseconds);
+    }
+
+    /** Removes all cached tokens. */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxAgeMilliseconds() {
+        return maxAgeMilliseconds;
+    }
+
+    /** Returns the number of verifications rejected from the cache, without any signature verification. */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+}
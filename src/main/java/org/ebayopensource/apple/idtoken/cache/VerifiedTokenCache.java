@@ -0,0 +1,177 @@
+package org.ebayopensource.apple.idtoken.cache;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+import org.ebayopensource.apple.idtoken.util.IDTokenException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Bounded cache of ID tokens whose signature has already been verified.
+ *
+ * Entries are keyed by the SHA-256 digest of the token and never outlive the token's exp claim
+ * nor maxAgeMilliseconds. Only positive results are cached. Concurrent verifications of the
+ * same token are coalesced so that a single signature verification runs.
+ */
+public class VerifiedTokenCache {
+
+    /** Maximum number of tokens held by the cache. */
+    private final int maxEntries;
+
+    /** Maximum number of milliseconds a token is cached for, regardless of its exp claim. */
+    private final long maxAgeMilliseconds;
+
+    /** Cached tokens, keyed by token digest. */
+    private final ExpiringEntries<Boolean> entries;
+
+    /** Verifications currently running, keyed by token digest. */
+    private final ConcurrentMap<String, FutureTask<Boolean>> inFlightVerifications =
+            new ConcurrentHashMap<String, FutureTask<Boolean>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /** Signature verification run on a cache miss. */
+    public interface Verification {
+        boolean verify() throws IDTokenException;
+    }
+
+    public VerifiedTokenCache(int maxEntries, long maxAgeMilliseconds) {
+        if (maxEntries <= 0 || maxAgeMilliseconds <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxAgeMilliseconds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxAgeMilliseconds = maxAgeMilliseconds;
+        this.entries = new ExpiringEntries<Boolean>(maxEntries);
+    }
+
+    /**
+     * Function that returns the cached result for the ID token, or runs the verification on a miss.
+     * A successful verification is cached until the earlier of expiryTimeInMillis and maxAgeMilliseconds.
+     *
+     * @param idToken Input ID token
+     * @param expiryTimeInMillis exp claim of the token in milliseconds
+     * @param verification signature verification to run on a miss
+     * @return true if the token is cached or verification succeeded
+     * @throws IDTokenException thrown by the verification
+     */
+    public boolean verify(String idToken, long expiryTimeInMillis, final Verification verification) throws IDTokenException {
+        String key = ExpiringEntries.digest(idToken);
+        long now = System.currentTimeMillis();
+
+        if (entries.get(key, now) != null) {
+            hitCount.incrementAndGet();
+            return true;
+        }
+
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IDTokenException {
+                return verification.verify();
+            }
+        });
+        FutureTask<Boolean> inFlight = inFlightVerifications.putIfAbsent(key, task);
+        if (inFlight != null) {
+            coalescedCount.incrementAndGet();
+            return await(inFlight);
+        }
+
+        missCount.incrementAndGet();
+        try {
+            task.run();
+            boolean verified = await(task);
+            long entryExpiresAt = Math.min(expiryTimeInMillis, now + maxAgeMilliseconds);
+            if (verified && entryExpiresAt > System.currentTimeMillis()) {
+                entries.put(key, Boolean.TRUE, entryExpiresAt);
+            }
+            return verified;
+        } finally {
+            inFlightVerifications.remove(key, task);
+        }
+    }
+
+    /**
+     * Function that checks whether the ID token is cached as verified, without running any verification.
+     *
+     * @param idToken Input ID token
+     * @return true if the token is cached and not expired
+     */
+    public boolean isVerified(String idToken) {
+        if (entries.get(ExpiringEntries.digest(idToken), System.currentTimeMillis()) != null) {
+            hitCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean await(FutureTask<Boolean> task) throws IDTokenException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IDTokenException) {
+                throw (IDTokenException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IDTokenException(IDTokenErrorEnum.INVALID_ID_TOKEN, e.getCause());
+        }
+    }
+
+    /** Removes all cached tokens. */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxAgeMilliseconds() {
+        return maxAgeMilliseconds;
+    }
+
+    /** Returns the number of verifications answered from the cache. */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of verifications that ran a signature verification. */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Returns the number of verifications that waited on an identical verification already running. */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
@@ -0,0 +1,75 @@
+package org.ebayopensource.apple.idtoken.entities;
+
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class AppleIDTokenHeader {
+
+    /**
+     * https://developer.apple.com/documentation/signinwithapplerestapi/authenticating_users_with_sign_in_with_apple
+     */
+
+    /**
+     * The identifier of the Apple public key used to sign the token. Matches the kid of one entry in Apple's JWKSet.
+     */
+    @SerializedName("kid")
+    private String keyId;
+
+    /**
+     * The algorithm used to sign the token. Apple signs ID tokens with RS256.
+     */
+    @SerializedName("alg")
+    private String algorithm;
+
+    /**
+     * Function that reads the header from a JSON object, skipping unknown fields.
+     *
+     * @param reader reader positioned at the header object
+     * @return header, or null if the value is null
+     * @throws IOException if the JSON is malformed
+     */
+    public static AppleIDTokenHeader read(JsonReader reader) throws IOException {
+        if (JsonValues.skipNull(reader)) return null;
+        AppleIDTokenHeader header = new AppleIDTokenHeader();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("kid".equals(name)) {
+                header.keyId = JsonValues.readString(reader);
+            } else if ("alg".equals(name)) {
+                header.algorithm = JsonValues.readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return header;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+}
@@ -1,7 +1,10 @@
 package org.ebayopensource.apple.idtoken.entities;
 
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /************************************************************************
@@ -30,6 +33,35 @@ public class AppleJWKSet {
     @SerializedName("keys")
     private List<ApplePublicKey> keys;
 
+    /**
+     * Function that reads a JWK set, skipping unknown fields.
+     *
+     * @param reader reader positioned at the JWK set object
+     * @return JWK set, or null if the value is null
+     * @throws IOException if the JSON is malformed
+     */
+    public static AppleJWKSet read(JsonReader reader) throws IOException {
+        if (JsonValues.skipNull(reader)) return null;
+        AppleJWKSet jwkSet = new AppleJWKSet();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("keys".equals(name) && !JsonValues.skipNull(reader)) {
+                List<ApplePublicKey> keys = new ArrayList<ApplePublicKey>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    keys.add(ApplePublicKey.read(reader));
+                }
+                reader.endArray();
+                jwkSet.keys = keys;
+            } else if (!"keys".equals(name)) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return jwkSet;
+    }
+
     public List<ApplePublicKey> getKeys() {
         return keys;
     }
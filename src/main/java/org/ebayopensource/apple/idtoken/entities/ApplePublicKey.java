@@ -1,6 +1,9 @@
 package org.ebayopensource.apple.idtoken.entities;
 
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
 
 /************************************************************************
  Copyright 2020 eBay Inc.
@@ -62,6 +65,39 @@ public class ApplePublicKey {
     private String e;
 
 
+    /**
+     * Function that reads a key from a JWK object, skipping unknown fields.
+     *
+     * @param reader reader positioned at the key object
+     * @return key, or null if the value is null
+     * @throws IOException if the JSON is malformed
+     */
+    public static ApplePublicKey read(JsonReader reader) throws IOException {
+        if (JsonValues.skipNull(reader)) return null;
+        ApplePublicKey key = new ApplePublicKey();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("kty".equals(name)) {
+                key.kty = JsonValues.readString(reader);
+            } else if ("kid".equals(name)) {
+                key.kid = JsonValues.readString(reader);
+            } else if ("use".equals(name)) {
+                key.use = JsonValues.readString(reader);
+            } else if ("alg".equals(name)) {
+                key.alg = JsonValues.readString(reader);
+            } else if ("n".equals(name)) {
+                key.n = JsonValues.readString(reader);
+            } else if ("e".equals(name)) {
+                key.e = JsonValues.readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return key;
+    }
+
     public String getKty() {
         return kty;
     }
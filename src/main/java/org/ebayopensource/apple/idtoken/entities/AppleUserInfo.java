@@ -1,6 +1,11 @@
 package org.ebayopensource.apple.idtoken.entities;
 
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /************************************************************************
  Copyright 2020 eBay Inc.
@@ -40,11 +45,16 @@ public class AppleUserInfo {
 
 
     /**
-     * Your client_id in your Apple Developer account.
+     * Your client_id in your Apple Developer account: the first audience of the token.
      */
     @SerializedName("aud")
     private String clientId;
 
+    /**
+     * Every audience of the token. Apple sends a single one, but OpenID Connect allows aud to be an array.
+     */
+    private transient List<String> audiences = Collections.emptyList();
+
 
     /**
      * The expiry time for the token. This value is typically set to 5 minutes.
@@ -82,6 +92,47 @@ public class AppleUserInfo {
     @SerializedName("email_verified")
     private boolean emailVerified;
 
+    /**
+     * Function that reads the claims from a JSON object, skipping unknown claims.
+     *
+     * @param reader reader positioned at the payload object
+     * @return claims, or null if the value is null
+     * @throws IOException if the JSON is malformed
+     */
+    public static AppleUserInfo read(JsonReader reader) throws IOException {
+        if (JsonValues.skipNull(reader)) return null;
+        AppleUserInfo userInfo = new AppleUserInfo();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("iss".equals(name)) {
+                userInfo.issuer = JsonValues.readString(reader);
+            } else if ("sub".equals(name)) {
+                userInfo.uniqueIdentifier = JsonValues.readString(reader);
+            } else if ("aud".equals(name)) {
+                List<String> audiences = JsonValues.readStrings(reader);
+                if (audiences != null && !audiences.isEmpty()) {
+                    userInfo.clientId = audiences.get(0);
+                    userInfo.audiences = Collections.unmodifiableList(audiences);
+                }
+            } else if ("exp".equals(name)) {
+                userInfo.expiryTime = JsonValues.readString(reader);
+            } else if ("iat".equals(name)) {
+                userInfo.issuingTime = JsonValues.readString(reader);
+            } else if ("nonce".equals(name)) {
+                userInfo.nonce = JsonValues.readString(reader);
+            } else if ("email".equals(name)) {
+                userInfo.email = JsonValues.readString(reader);
+            } else if ("email_verified".equals(name)) {
+                userInfo.emailVerified = JsonValues.readBoolean(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return userInfo;
+    }
+
     public String getIssuer() {
         return issuer;
     }
@@ -94,6 +145,11 @@ public class AppleUserInfo {
         return clientId;
     }
 
+    /** Returns every aud value of the token, or an empty list if it has none. */
+    public List<String> getAudiences() {
+        return audiences;
+    }
+
     public String getExpiryTime() {
         return expiryTime;
     }
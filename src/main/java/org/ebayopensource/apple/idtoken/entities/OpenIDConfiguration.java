@@ -0,0 +1,95 @@
+package org.ebayopensource.apple.idtoken.entities;
+
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class OpenIDConfiguration {
+
+    /**
+     * OpenID Provider metadata served at {issuer}/.well-known/openid-configuration
+     * https://openid.net/specs/openid-connect-discovery-1_0.html#ProviderMetadata
+     */
+
+    @SerializedName("issuer")
+    private String issuer;
+
+    /**
+     * URL of the JWK set the issuer signs its ID tokens with.
+     */
+    @SerializedName("jwks_uri")
+    private String jwksUri;
+
+    /**
+     * Algorithms the issuer may sign ID tokens with, e.g. RS256.
+     */
+    @SerializedName("id_token_signing_alg_values_supported")
+    private List<String> idTokenSigningAlgorithms;
+
+    /**
+     * Function that reads the provider metadata from a JSON object, skipping unknown fields.
+     *
+     * @param reader reader positioned at the metadata object
+     * @return metadata, or null if the value is null
+     * @throws IOException if the JSON is malformed
+     */
+    public static OpenIDConfiguration read(JsonReader reader) throws IOException {
+        if (JsonValues.skipNull(reader)) return null;
+        OpenIDConfiguration configuration = new OpenIDConfiguration();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("issuer".equals(name)) {
+                configuration.issuer = JsonValues.readString(reader);
+            } else if ("jwks_uri".equals(name)) {
+                configuration.jwksUri = JsonValues.readString(reader);
+            } else if ("id_token_signing_alg_values_supported".equals(name) && !JsonValues.skipNull(reader)) {
+                List<String> algorithms = new ArrayList<String>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    algorithms.add(JsonValues.readString(reader));
+                }
+                reader.endArray();
+                configuration.idTokenSigningAlgorithms = Collections.unmodifiableList(algorithms);
+            } else if (!"id_token_signing_alg_values_supported".equals(name)) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return configuration;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    /** Returns the algorithms the issuer may sign ID tokens with, or null if the metadata does not list them. */
+    public List<String> getIdTokenSigningAlgorithms() {
+        return idTokenSigningAlgorithms;
+    }
+}
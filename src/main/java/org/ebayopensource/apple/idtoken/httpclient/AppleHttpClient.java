@@ -1,13 +1,25 @@
 package org.ebayopensource.apple.idtoken.httpclient;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.ebayopensource.apple.idtoken.ApplePublicKeysManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /************************************************************************
  Copyright 2020 eBay Inc.
@@ -26,18 +38,170 @@ import java.io.IOException;
  limitations under the License.
  **************************************************************************/
 
+/**
+ * HTTP transport fetching Apple's public keys.
+ *
+ * Connections are pooled and kept alive across fetches. Every fetch is bounded by connect, read and total
+ * timeouts, and by a maximum response body size. Instances are thread safe; call shutdown to close the pool.
+ */
 public class AppleHttpClient {
 
-    private static final String APPLE_GET_PUBLIC_KEY_ENDPOINT = "https://appleid.apple.com/auth/keys";
+    /** Apple's JWK set endpoint, fetched by the shared client. */
+    public static final String APPLE_GET_PUBLIC_KEY_ENDPOINT = "https://appleid.apple.com/auth/keys";
 
-    private static final AppleHttpClient appleHttpClient = new AppleHttpClient();
+    /** Closes the connection of fetches exceeding their total timeout. Its single daemon thread is shared. */
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "apple-http-client-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private AppleHttpClient() {}
+    private static final AppleHttpClient appleHttpClient = new AppleHttpClient(APPLE_GET_PUBLIC_KEY_ENDPOINT, true);
 
+    private final String endpoint;
+
+    /** Whether the proxy configured on ApplePublicKeysManager applies, when this instance has none of its own. */
+    private final boolean useManagerProxy;
+
+    private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    private final HttpClient client = new HttpClient(connectionManager);
+
+    /** Milliseconds to wait for a connection to be established. */
+    private volatile int connectTimeoutMilliseconds = 5000;
+
+    /** Milliseconds to wait for data on an established connection. */
+    private volatile int readTimeoutMilliseconds = 5000;
+
+    /** Milliseconds a whole fetch may take, from waiting for a pooled connection to reading the last byte. */
+    private volatile int totalTimeoutMilliseconds = 10000;
+
+    /** Maximum size of a response body, in bytes. */
+    private volatile int maxResponseBytes = 256 * 1024;
+
+    private volatile String proxyHost;
+    private volatile int proxyPort;
+
+    private volatile boolean shutdown;
+
+    private AppleHttpClient(String endpoint, boolean useManagerProxy) {
+        if (endpoint == null) {
+            throw new IllegalArgumentException("endpoint must not be null");
+        }
+        this.endpoint = endpoint;
+        this.useManagerProxy = useManagerProxy;
+        applyTimeouts();
+    }
+
+    /**
+     * Creates a client fetching keys from the given JWK set endpoint instead of Apple's.
+     *
+     * @param endpoint URL of the JWK set
+     */
+    public AppleHttpClient(String endpoint) {
+        this(endpoint, false);
+    }
+
+    /** Returns the shared client of Apple's endpoint, which uses the proxy configured on ApplePublicKeysManager. */
     public static AppleHttpClient getAppleHttpClient() {
         return appleHttpClient;
     }
 
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getConnectTimeoutMilliseconds() {
+        return connectTimeoutMilliseconds;
+    }
+
+    /**
+     * Set the milliseconds to wait for a connection to be established
+     * @param connectTimeoutMilliseconds positive timeout in milliseconds
+     * @return AppleHttpClient object after setting the timeout
+     */
+    public AppleHttpClient setConnectTimeoutMilliseconds(int connectTimeoutMilliseconds) {
+        this.connectTimeoutMilliseconds = positive(connectTimeoutMilliseconds, "connectTimeoutMilliseconds");
+        applyTimeouts();
+        return this;
+    }
+
+    public int getReadTimeoutMilliseconds() {
+        return readTimeoutMilliseconds;
+    }
+
+    /**
+     * Set the milliseconds to wait for data on an established connection
+     * @param readTimeoutMilliseconds positive timeout in milliseconds
+     * @return AppleHttpClient object after setting the timeout
+     */
+    public AppleHttpClient setReadTimeoutMilliseconds(int readTimeoutMilliseconds) {
+        this.readTimeoutMilliseconds = positive(readTimeoutMilliseconds, "readTimeoutMilliseconds");
+        applyTimeouts();
+        return this;
+    }
+
+    public int getTotalTimeoutMilliseconds() {
+        return totalTimeoutMilliseconds;
+    }
+
+    /**
+     * Set the milliseconds a whole fetch may take, after which its connection is closed
+     * @param totalTimeoutMilliseconds positive timeout in milliseconds
+     * @return AppleHttpClient object after setting the timeout
+     */
+    public AppleHttpClient setTotalTimeoutMilliseconds(int totalTimeoutMilliseconds) {
+        this.totalTimeoutMilliseconds = positive(totalTimeoutMilliseconds, "totalTimeoutMilliseconds");
+        applyTimeouts();
+        return this;
+    }
+
+    public int getMaxResponseBytes() {
+        return maxResponseBytes;
+    }
+
+    /**
+     * Set the maximum size of a response body, larger responses failing the fetch
+     * @param maxResponseBytes positive size in bytes
+     * @return AppleHttpClient object after setting the size
+     */
+    public AppleHttpClient setMaxResponseBytes(int maxResponseBytes) {
+        this.maxResponseBytes = positive(maxResponseBytes, "maxResponseBytes");
+        return this;
+    }
+
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    /**
+     * Set the proxy used by this client. It takes precedence over the proxy configured on ApplePublicKeysManager.
+     * @param proxyHost proxy host, or null to connect directly
+     * @param proxyPort proxy port
+     * @return AppleHttpClient object after setting the proxy
+     */
+    public AppleHttpClient setProxy(String proxyHost, int proxyPort) {
+        if (proxyHost != null && proxyPort <= 0) {
+            throw new IllegalArgumentException("proxyPort must be positive");
+        }
+        this.proxyPort = proxyPort;
+        this.proxyHost = proxyHost;
+        return this;
+    }
+
+    /** Closes the pooled connections. The shared client of Apple's endpoint should not be shut down. */
+    public void shutdown() {
+        shutdown = true;
+        connectionManager.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
     /**
      * Function that returns Apple's public key.
      *
@@ -45,23 +209,174 @@ public class AppleHttpClient {
      * @throws IOException
      */
     public String fetchApplePublicKeyResponse() throws IOException {
+        AppleKeysResponse response = fetchApplePublicKeys(null, null);
+        return response == null ? null : response.getBody();
+    }
 
-        ApplePublicKeysManager manager = ApplePublicKeysManager.getApplePublicKeysManager();
-        String response = null;
-        HttpClient client = new HttpClient();
-        HttpMethod getMethod = new GetMethod(APPLE_GET_PUBLIC_KEY_ENDPOINT);
+    /**
+     * Function that fetches Apple's public keys, conditionally when validators of the keys already held are given.
+     *
+     * @param eTag ETag of the keys already held, sent as If-None-Match, or null
+     * @param lastModified Last-Modified of the keys already held, sent as If-Modified-Since, or null
+     * @return the keys and their caching headers, a not modified response for a 304, or null for any other status
+     * @throws IOException if the fetch fails, times out or its body exceeds maxResponseBytes
+     */
+    public AppleKeysResponse fetchApplePublicKeys(String eTag, String lastModified) throws IOException {
+        return fetchApplePublicKeys(endpoint, eTag, lastModified);
+    }
 
-        if(manager.isProxyEnabled()) {
-            HostConfiguration hostConfiguration = client.getHostConfiguration();
-            hostConfiguration.setProxy(manager.getProxyHost(), manager.getProxyPort());
-            client.setHostConfiguration(hostConfiguration);
+    /**
+     * Function that fetches a JWK set from the given endpoint instead of the client's own, through the same
+     * connection pool, timeouts and proxy.
+     *
+     * @param endpoint URL of the JWK set
+     * @see #fetchApplePublicKeys(String, String)
+     */
+    public AppleKeysResponse fetchApplePublicKeys(String endpoint, String eTag, String lastModified) throws IOException {
+
+        AppleKeysResponse response = null;
+        final BoundedGetMethod getMethod = new BoundedGetMethod(endpoint);
+        if(eTag != null) {
+            getMethod.setRequestHeader("If-None-Match", eTag);
+        }
+        if(lastModified != null) {
+            getMethod.setRequestHeader("If-Modified-Since", lastModified);
+        }
+
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost(getMethod.getURI());
+        String host = proxyHost;
+        int port = proxyPort;
+        if(host == null && useManagerProxy) {
+            ApplePublicKeysManager manager = ApplePublicKeysManager.getApplePublicKeysManager();
+            if(manager.isProxyEnabled()) {
+                host = manager.getProxyHost();
+                port = manager.getProxyPort();
+            }
+        }
+        if(host != null) {
+            hostConfiguration.setProxy(host, port);
         }
 
-        client.executeMethod(getMethod);
-        if(getMethod.getStatusCode() == HttpStatus.SC_OK) {
-            response = getMethod.getResponseBodyAsString();
+        ScheduledFuture<?> timeout = TIMEOUT_SCHEDULER.schedule(getMethod::abort, totalTimeoutMilliseconds,
+                TimeUnit.MILLISECONDS);
+        try {
+            client.executeMethod(hostConfiguration, getMethod);
+            int statusCode = getMethod.getStatusCode();
+            if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                boolean notModified = statusCode == HttpStatus.SC_NOT_MODIFIED;
+                long timeToLive = AppleKeysResponse.parseTimeToLive(getHeader(getMethod, "Cache-Control"),
+                        getHeader(getMethod, "Expires"), getHeader(getMethod, "Date"), getHeader(getMethod, "Age"),
+                        System.currentTimeMillis());
+                response = new AppleKeysResponse(notModified, notModified ? null : readBody(getMethod),
+                        getHeader(getMethod, "ETag"), getHeader(getMethod, "Last-Modified"), timeToLive);
+            }
+        } catch (IOException e) {
+            if(getMethod.isAborted()) {
+                throw new InterruptedIOException("Fetching " + endpoint + " exceeded " + totalTimeoutMilliseconds + " ms");
+            }
+            throw e;
+        } finally {
+            if(response == null) {
+                // An error status or a failed read: close rather than drain a body that is neither size nor time bounded.
+                getMethod.closeConnection();
+            }
+            getMethod.releaseConnection();
+            timeout.cancel(false);
         }
 
         return response;
     }
+
+    /** Reads the body up to maxResponseBytes; a larger body closes the connection rather than draining it. */
+    private String readBody(BoundedGetMethod getMethod) throws IOException {
+        int limit = maxResponseBytes;
+        Header contentLength = getMethod.getResponseHeader("Content-Length");
+        if(contentLength != null && isLongerThan(contentLength.getValue(), limit)) {
+            getMethod.closeConnection();
+            throw new IOException("Response of " + endpoint + " exceeds " + limit + " bytes");
+        }
+        InputStream in = getMethod.getResponseBodyAsStream();
+        if(in == null) {
+            return "";
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for(int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            if(out.size() + read > limit) {
+                getMethod.closeConnection();
+                throw new IOException("Response of " + endpoint + " exceeds " + limit + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static boolean isLongerThan(String contentLength, int limit) {
+        try {
+            return Long.parseLong(contentLength.trim()) > limit;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void applyTimeouts() {
+        client.setConnectionTimeout(connectTimeoutMilliseconds);
+        client.setTimeout(readTimeoutMilliseconds);
+        client.setHttpConnectionFactoryTimeout(totalTimeoutMilliseconds);
+    }
+
+    private static int positive(int value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    private static String getHeader(HttpMethod method, String name) {
+        Header header = method.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * GET that can be aborted from another thread by closing its connection,
+     * which commons-httpclient 2.0 does not support natively.
+     */
+    private static final class BoundedGetMethod extends GetMethod {
+
+        private volatile HttpConnection connection;
+        private volatile boolean aborted;
+
+        BoundedGetMethod(String uri) {
+            super(uri);
+        }
+
+        @Override
+        protected void writeRequest(HttpState state, HttpConnection conn) throws IOException, HttpException {
+            connection = conn;
+            if (aborted) {
+                conn.close();
+                throw new InterruptedIOException("Request aborted");
+            }
+            super.writeRequest(state, conn);
+        }
+
+        /** Marks the request as timed out and closes its connection, failing any blocked read. */
+        void abort() {
+            aborted = true;
+            closeConnection();
+        }
+
+        /** Closes the connection, so that releasing it does not drain the rest of the response. */
+        void closeConnection() {
+            HttpConnection conn = connection;
+            if (conn != null) {
+                conn.close();
+            }
+        }
+
+        boolean isAborted() {
+            return aborted;
+        }
+    }
 }
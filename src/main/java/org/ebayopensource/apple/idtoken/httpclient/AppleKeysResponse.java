@@ -0,0 +1,134 @@
+package org.ebayopensource.apple.idtoken.httpclient;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateParser;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Response of Apple's public keys endpoint, with the validators and freshness information
+ * of its caching headers.
+ */
+public final class AppleKeysResponse {
+
+    private static final String MAX_AGE = "max-age=";
+
+    /** True for a 304 response: the keys did not change since the request's validators. */
+    private final boolean notModified;
+
+    /** JWK set in JSON, null for a 304 response. */
+    private final String body;
+
+    private final String eTag;
+    private final String lastModified;
+
+    /** Freshness lifetime given by Cache-Control or Expires, or -1 if the headers give none. */
+    private final long timeToLiveMilliseconds;
+
+    public AppleKeysResponse(boolean notModified, String body, String eTag, String lastModified,
+                             long timeToLiveMilliseconds) {
+        this.notModified = notModified;
+        this.body = body;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.timeToLiveMilliseconds = timeToLiveMilliseconds;
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /** Returns the freshness lifetime given by the caching headers, or -1 if they give none. */
+    public long getTimeToLiveMilliseconds() {
+        return timeToLiveMilliseconds;
+    }
+
+    /**
+     * Function that computes the freshness lifetime of a response from its caching headers.
+     * Cache-Control max-age takes precedence over Expires; no-cache and no-store give 0.
+     *
+     * @param cacheControl Cache-Control header value, possibly null
+     * @param expires Expires header value, possibly null
+     * @param date Date header value, possibly null
+     * @param age Age header value, possibly null
+     * @param now current time in milliseconds, used when there is no valid Date header
+     * @return freshness lifetime in milliseconds, or -1 if the headers give none
+     */
+    static long parseTimeToLive(String cacheControl, String expires, String date, String age, long now) {
+        if (cacheControl != null) {
+            long maxAgeSeconds = -1;
+            for (String directive : cacheControl.split(",")) {
+                String value = directive.trim().toLowerCase();
+                if (value.equals("no-cache") || value.equals("no-store")) {
+                    return 0;
+                }
+                if (value.startsWith(MAX_AGE)) {
+                    maxAgeSeconds = parseSeconds(value.substring(MAX_AGE.length()));
+                }
+            }
+            if (maxAgeSeconds >= 0) {
+                long ageSeconds = Math.max(0, parseSeconds(age));
+                return Math.max(0, maxAgeSeconds - ageSeconds) * 1000L;
+            }
+        }
+        if (expires != null) {
+            long expiresTime = parseDate(expires);
+            if (expiresTime < 0) {
+                // An invalid Expires, such as "0", means already expired.
+                return 0;
+            }
+            long dateTime = parseDate(date);
+            return Math.max(0, expiresTime - (dateTime < 0 ? now : dateTime));
+        }
+        return -1;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.min(Long.parseLong(value.trim()), Long.MAX_VALUE / 1000L);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return DateParser.parseDate(value).getTime();
+        } catch (DateParseException e) {
+            return -1;
+        }
+    }
+}
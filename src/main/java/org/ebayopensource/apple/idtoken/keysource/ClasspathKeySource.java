@@ -0,0 +1,68 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Reads the JWK set from a classpath resource, e.g. keys bundled with a load test or an air-gapped deployment.
+ */
+public class ClasspathKeySource implements KeySource {
+
+    private final String resourceName;
+    private final ClassLoader classLoader;
+
+    public ClasspathKeySource(String resourceName) {
+        this(resourceName, ClasspathKeySource.class.getClassLoader());
+    }
+
+    public ClasspathKeySource(String resourceName, ClassLoader classLoader) {
+        if (resourceName == null || classLoader == null) {
+            throw new IllegalArgumentException("resourceName and classLoader must not be null");
+        }
+        this.resourceName = resourceName;
+        this.classLoader = classLoader;
+    }
+
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    @Override
+    public AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException {
+        InputStream in = classLoader.getResourceAsStream(resourceName);
+        if (in == null) {
+            throw new FileNotFoundException("Classpath resource not found: " + resourceName);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return new AppleKeysResponse(false, out.toString("UTF-8"), null, null, -1);
+        } finally {
+            in.close();
+        }
+    }
+}
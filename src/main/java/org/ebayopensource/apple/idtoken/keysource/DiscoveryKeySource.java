@@ -0,0 +1,438 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import com.google.gson.stream.JsonReader;
+import org.ebayopensource.apple.idtoken.entities.OpenIDConfiguration;
+import org.ebayopensource.apple.idtoken.httpclient.AppleHttpClient;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Fetches the JWK set from the jwks_uri advertised by the issuer's OpenID discovery document,
+ * {issuer}/.well-known/openid-configuration, so that the key endpoint can change without a redeploy.
+ *
+ * The document is cached for timeToLiveMilliseconds and refreshed on its own schedule, independently of the keys:
+ * when it expires, it is fetched again on refreshExecutor while it stays in use, so discovery only adds a round trip
+ * to the very first key fetch. Key fetches never run on the verification path of cached keys anyway.
+ * When discovery fails, the fallback jwks_uri, or the expired document, is used at once while discovery is
+ * retried on refreshExecutor with exponential backoff, so an outage of discovery adds no round trip to key fetches.
+ *
+ * A discovered jwks_uri must use https, as OpenID Connect Discovery requires; plain http is only accepted on a
+ * loopback host, for local stub servers. A document advertising any other jwks_uri is rejected like a failed fetch.
+ *
+ * The discovery document and every jwks_uri it advertises are fetched through one client, so a changed
+ * jwks_uri reuses its connection pool. Call close to shut down the client the source created.
+ */
+public class DiscoveryKeySource implements KeySource, Closeable {
+
+    public static final String WELL_KNOWN_PATH = "/.well-known/openid-configuration";
+
+    private static final String APPLE_ISSUER = "https://appleid.apple.com";
+    private static final String APPLE_JWKS_URI = "https://appleid.apple.com/auth/keys";
+
+    /**
+     * Schedules the refresh of every source's discovery document, and fetches it unless another refreshExecutor is set.
+     * Its single daemon thread is started on first use.
+     */
+    private static final ScheduledExecutorService DEFAULT_REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "openid-discovery-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String issuer;
+
+    /** Client of the discovery document and of every jwks_uri. */
+    private final AppleHttpClient discoveryClient;
+
+    /** Whether discoveryClient was created by this source, and is shut down on close. */
+    private final boolean ownsDiscoveryClient;
+
+    /** JWK set endpoint used until a discovery document was fetched, or null to require one. */
+    private final String fallbackJwksUri;
+
+    /** Number of milliseconds a discovery document is used before it is fetched again. */
+    private volatile long timeToLiveMilliseconds = 86400000;
+
+    private volatile Executor refreshExecutor = DEFAULT_REFRESH_EXECUTOR;
+
+    /** Current discovery document; null until one was fetched. */
+    private final AtomicReference<Discovery> discovery = new AtomicReference<Discovery>();
+
+    /** Endpoint of the last key fetch, whose validators do not apply to another endpoint. */
+    private volatile String lastKeysEndpoint;
+
+    /** Set while an expired document is fetched on refreshExecutor. */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** Number of milliseconds after a failed discovery before it is retried. Doubles with each consecutive failure. */
+    private volatile long retryIntervalMilliseconds = 30000;
+
+    /** Upper bound of the delay between two discovery attempts after consecutive failures. */
+    private volatile long maxRetryIntervalMilliseconds = 3600000;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /** Time in milliseconds before which discovery is not attempted again, after a failure. */
+    private volatile long nextAttemptTimeInMillis;
+
+    /** Next refresh of the discovery document, at its expiry or once the backoff after a failure is over. */
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /** Set by close, after which no refresh is scheduled; guarded by this, as is scheduledRefresh. */
+    private boolean closed;
+
+    /**
+     * @param issuer issuer whose discovery document is fetched, e.g. https://accounts.google.com
+     */
+    public DiscoveryKeySource(String issuer) {
+        this(issuer, null, null);
+    }
+
+    /**
+     * @param issuer issuer whose discovery document is fetched
+     * @param discoveryClient client of the discovery document and of the discovered jwks_uri, or null for a client
+     *                        created, and shut down on close, by this source
+     * @param fallbackJwksUri JWK set endpoint used while no discovery document could be fetched, or null
+     */
+    public DiscoveryKeySource(String issuer, AppleHttpClient discoveryClient, String fallbackJwksUri) {
+        if (issuer == null || issuer.isEmpty()) {
+            throw new IllegalArgumentException("issuer must not be empty");
+        }
+        this.issuer = issuer;
+        this.ownsDiscoveryClient = discoveryClient == null;
+        this.discoveryClient = discoveryClient != null ? discoveryClient
+                : new AppleHttpClient(stripTrailingSlash(issuer) + WELL_KNOWN_PATH);
+        this.fallbackJwksUri = fallbackJwksUri;
+    }
+
+    /** Returns a source discovering Apple's key endpoint, falling back to the well-known one until discovery succeeds. */
+    public static DiscoveryKeySource apple() {
+        return new DiscoveryKeySource(APPLE_ISSUER, null, APPLE_JWKS_URI);
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public long getTimeToLiveMilliseconds() {
+        return timeToLiveMilliseconds;
+    }
+
+    /**
+     * Set the number of milliseconds a discovery document is used before it is fetched again in the background
+     * @param timeToLiveMilliseconds positive lifetime, defaults to 86400000
+     * @return DiscoveryKeySource object after setting the lifetime
+     */
+    public DiscoveryKeySource setTimeToLiveMilliseconds(long timeToLiveMilliseconds) {
+        if (timeToLiveMilliseconds <= 0) {
+            throw new IllegalArgumentException("timeToLiveMilliseconds must be positive");
+        }
+        this.timeToLiveMilliseconds = timeToLiveMilliseconds;
+        return this;
+    }
+
+    public long getRetryIntervalMilliseconds() {
+        return retryIntervalMilliseconds;
+    }
+
+    /**
+     * Set the delay before a failed discovery is retried, doubled for each consecutive failure
+     * @param retryIntervalMilliseconds positive delay, defaults to 30000
+     * @return DiscoveryKeySource object after setting the delay
+     */
+    public DiscoveryKeySource setRetryIntervalMilliseconds(long retryIntervalMilliseconds) {
+        if (retryIntervalMilliseconds <= 0) {
+            throw new IllegalArgumentException("retryIntervalMilliseconds must be positive");
+        }
+        this.retryIntervalMilliseconds = retryIntervalMilliseconds;
+        return this;
+    }
+
+    public long getMaxRetryIntervalMilliseconds() {
+        return maxRetryIntervalMilliseconds;
+    }
+
+    /**
+     * Set the upper bound of the delay between two discovery attempts after consecutive failures
+     * @param maxRetryIntervalMilliseconds positive delay, defaults to 3600000
+     * @return DiscoveryKeySource object after setting the delay
+     */
+    public DiscoveryKeySource setMaxRetryIntervalMilliseconds(long maxRetryIntervalMilliseconds) {
+        if (maxRetryIntervalMilliseconds <= 0) {
+            throw new IllegalArgumentException("maxRetryIntervalMilliseconds must be positive");
+        }
+        this.maxRetryIntervalMilliseconds = maxRetryIntervalMilliseconds;
+        return this;
+    }
+
+    /** Returns the number of discovery attempts that failed in a row. */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Set the executor fetching expired discovery documents in the background. The refreshes are still scheduled
+     * on the daemon thread shared by every source, which hands them over to this executor
+     * @param refreshExecutor executor, defaults to a daemon thread shared by every source
+     * @return DiscoveryKeySource object after setting the executor
+     */
+    public DiscoveryKeySource setRefreshExecutor(Executor refreshExecutor) {
+        if (refreshExecutor == null) {
+            throw new IllegalArgumentException("refreshExecutor must not be null");
+        }
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    /** Returns the current discovery document, or null if none was fetched yet. */
+    public OpenIDConfiguration getConfiguration() {
+        Discovery current = discovery.get();
+        return current == null ? null : current.configuration;
+    }
+
+    /** Returns the discovered jwks_uri, or null if no discovery document was fetched yet. */
+    public String getJwksUri() {
+        OpenIDConfiguration configuration = getConfiguration();
+        return configuration == null ? null : configuration.getJwksUri();
+    }
+
+    /** Returns the discovered ID token signing algorithms, or null if unknown. */
+    public List<String> getIdTokenSigningAlgorithms() {
+        OpenIDConfiguration configuration = getConfiguration();
+        return configuration == null ? null : configuration.getIdTokenSigningAlgorithms();
+    }
+
+    @Override
+    public AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException {
+        String jwksUri = getKeysEndpoint();
+        if (!jwksUri.equals(lastKeysEndpoint)) {
+            eTag = null;
+            lastModified = null;
+        }
+        AppleKeysResponse response = discoveryClient.fetchApplePublicKeys(jwksUri, eTag, lastModified);
+        lastKeysEndpoint = jwksUri;
+        return response;
+    }
+
+    /**
+     * Stops the scheduled refresh of the discovery document, and closes the connections of the client created by
+     * this source. A client passed in is not shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+        if (ownsDiscoveryClient) {
+            discoveryClient.shutdown();
+        }
+    }
+
+    /**
+     * Returns the discovered jwks_uri. Without a discovery document, it is fetched on the calling thread the first
+     * time, and whenever there is no fallback jwks_uri; otherwise the fallback is returned while discovery is
+     * retried in the background.
+     */
+    private String getKeysEndpoint() throws IOException {
+        Discovery current = discovery.get();
+        if (current == null) {
+            if (fallbackJwksUri != null && consecutiveFailures.get() > 0) {
+                refreshInBackground();
+                return fallbackJwksUri;
+            }
+            try {
+                return refreshDiscovery().configuration.getJwksUri();
+            } catch (IOException e) {
+                if (fallbackJwksUri == null) {
+                    throw e;
+                }
+                return fallbackJwksUri;
+            }
+        }
+        if (System.currentTimeMillis() > current.expirationTimeInMillis) {
+            refreshInBackground();
+        }
+        return current.configuration.getJwksUri();
+    }
+
+    /** Fetches the discovery document on refreshExecutor, unless a fetch is already running or backing off. */
+    private void refreshInBackground() {
+        if (System.currentTimeMillis() < nextAttemptTimeInMillis || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refreshDiscovery();
+                } catch (IOException e) {
+                    // The expired document, or the fallback, stays in use until a retry after the backoff succeeds.
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Function that fetches the discovery document now, conditionally on the validators of the current one.
+     *
+     * The next refresh is scheduled at the expiry of the fetched document or, after a failure, once the next background
+     * attempt is due, retryIntervalMilliseconds later, doubled for each consecutive failure.
+     *
+     * @return the discovery now in use
+     * @throws IOException if the document cannot be fetched, or does not name this issuer and a jwks_uri
+     */
+    Discovery refreshDiscovery() throws IOException {
+        try {
+            Discovery fetched = fetchDiscovery();
+            consecutiveFailures.set(0);
+            nextAttemptTimeInMillis = 0;
+            scheduleRefresh(fetched.expirationTimeInMillis - System.currentTimeMillis());
+            return fetched;
+        } catch (IOException | RuntimeException e) {
+            long delay = getRetryDelay(consecutiveFailures.incrementAndGet());
+            nextAttemptTimeInMillis = System.currentTimeMillis() + delay;
+            scheduleRefresh(delay);
+            throw e;
+        }
+    }
+
+    /** Replaces the scheduled refresh by one after the given delay, unless the source is closed. */
+    private synchronized void scheduleRefresh(long delayMilliseconds) {
+        if (closed) {
+            return;
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = DEFAULT_REFRESH_EXECUTOR.schedule(this::refreshInBackground, Math.max(0, delayMilliseconds),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Returns the delay before the next discovery attempt after the given number of consecutive failures. */
+    long getRetryDelay(int failures) {
+        int doublings = Math.min(failures - 1, 30);
+        long delay = retryIntervalMilliseconds > (Long.MAX_VALUE >> doublings)
+                ? Long.MAX_VALUE : retryIntervalMilliseconds << doublings;
+        return Math.min(delay, maxRetryIntervalMilliseconds);
+    }
+
+    private Discovery fetchDiscovery() throws IOException {
+        Discovery current = discovery.get();
+        AppleKeysResponse response = current == null ? discoveryClient.fetchApplePublicKeys(null, null)
+                : discoveryClient.fetchApplePublicKeys(current.eTag, current.lastModified);
+        if (response == null) {
+            throw new IOException("OpenID discovery document of " + issuer + " unavailable");
+        }
+        long expirationTime = System.currentTimeMillis() + timeToLiveMilliseconds;
+        Discovery fetched;
+        if (response.isNotModified() && current != null) {
+            fetched = new Discovery(current.configuration, expirationTime, current.eTag, current.lastModified);
+        } else {
+            fetched = new Discovery(parse(response.getBody()), expirationTime, response.getETag(), response.getLastModified());
+        }
+        discovery.set(fetched);
+        return fetched;
+    }
+
+    private OpenIDConfiguration parse(String body) throws IOException {
+        OpenIDConfiguration configuration;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(body == null ? "" : body));
+            reader.setLenient(true);
+            configuration = OpenIDConfiguration.read(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed OpenID discovery document of " + issuer, e);
+        }
+        if (configuration == null || !issuer.equals(configuration.getIssuer())) {
+            throw new IOException("OpenID discovery document does not name issuer " + issuer);
+        }
+        if (configuration.getJwksUri() == null || configuration.getJwksUri().isEmpty()) {
+            throw new IOException("OpenID discovery document of " + issuer + " has no jwks_uri");
+        }
+        if (!isSecureJwksUri(configuration.getJwksUri())) {
+            throw new IOException("OpenID discovery document of " + issuer + " has a jwks_uri that is not https: "
+                    + configuration.getJwksUri());
+        }
+        return configuration;
+    }
+
+    /** Returns true for an absolute https URL, or an http URL of a loopback host. */
+    static boolean isSecureJwksUri(String jwksUri) {
+        URI uri;
+        try {
+            uri = new URI(jwksUri);
+        } catch (URISyntaxException e) {
+            return false;
+        }
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        String host = uri.getHost();
+        if (host == null) {
+            return false;
+        }
+        if ("https".equals(scheme)) {
+            return true;
+        }
+        return "http".equals(scheme)
+                && ("localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host) || "[::1]".equals(host));
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /** Discovery document with the validators it was fetched with. */
+    static final class Discovery {
+
+        final OpenIDConfiguration configuration;
+        final long expirationTimeInMillis;
+        final String eTag;
+        final String lastModified;
+
+        Discovery(OpenIDConfiguration configuration, long expirationTimeInMillis, String eTag, String lastModified) {
+            this.configuration = configuration;
+            this.expirationTimeInMillis = expirationTimeInMillis;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Reads the JWK set from a local file. The file is read again only when its modification time or size changed,
+ * so that keys rotated by replacing the file are picked up on the next refresh.
+ */
+public class FileKeySource implements KeySource {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path path;
+
+    public FileKeySource(Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path must not be null");
+        }
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String fileETag = "\"" + attributes.lastModifiedTime().toMillis() + "-" + attributes.size() + "\"";
+        if (fileETag.equals(eTag)) {
+            return new AppleKeysResponse(true, null, fileETag, null, -1);
+        }
+        return new AppleKeysResponse(false, new String(Files.readAllBytes(path), UTF_8), fileETag, null, -1);
+    }
+}
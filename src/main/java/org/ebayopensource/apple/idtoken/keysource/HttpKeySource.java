@@ -0,0 +1,51 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import org.ebayopensource.apple.idtoken.httpclient.AppleHttpClient;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+import java.io.IOException;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Fetches the JWK set from Apple's endpoint, honouring its caching headers and validators.
+ */
+public class HttpKeySource implements KeySource {
+
+    private final AppleHttpClient appleHttpClient;
+
+    public HttpKeySource() {
+        this(AppleHttpClient.getAppleHttpClient());
+    }
+
+    public HttpKeySource(AppleHttpClient appleHttpClient) {
+        if (appleHttpClient == null) {
+            throw new IllegalArgumentException("appleHttpClient must not be null");
+        }
+        this.appleHttpClient = appleHttpClient;
+    }
+
+    public AppleHttpClient getAppleHttpClient() {
+        return appleHttpClient;
+    }
+
+    @Override
+    public AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException {
+        return appleHttpClient.fetchApplePublicKeys(eTag, lastModified);
+    }
+}
@@ -0,0 +1,49 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import com.google.gson.Gson;
+import org.ebayopensource.apple.idtoken.entities.AppleJWKSet;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Serves a fixed JWK set held in memory, e.g. keys generated by a test.
+ */
+public class InMemoryKeySource implements KeySource {
+
+    private final String keys;
+
+    /**
+     * @param keys JWK set in JSON
+     */
+    public InMemoryKeySource(String keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("keys must not be null");
+        }
+        this.keys = keys;
+    }
+
+    public InMemoryKeySource(AppleJWKSet keys) {
+        this(new Gson().toJson(keys));
+    }
+
+    @Override
+    public AppleKeysResponse fetchKeys(String eTag, String lastModified) {
+        return new AppleKeysResponse(false, keys, null, null, -1);
+    }
+}
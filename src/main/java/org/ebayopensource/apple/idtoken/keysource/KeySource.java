@@ -0,0 +1,64 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import com.google.gson.stream.JsonReader;
+import org.ebayopensource.apple.idtoken.entities.AppleJWKSet;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Source of the JWK set ID tokens are verified against.
+ *
+ * ApplePublicKeysManager fetches from Apple's endpoint by default; other sources let load tests and
+ * air-gapped deployments verify tokens against local key material. Implementations must be thread safe.
+ */
+public interface KeySource {
+
+    /**
+     * Function that fetches the JWK set, conditionally when validators of the keys already held are given.
+     *
+     * @param eTag ETag of the keys already held, or null
+     * @param lastModified Last-Modified of the keys already held, or null
+     * @return the JWK set in JSON, a not modified response if the keys did not change, or null if unavailable
+     * @throws IOException if the keys cannot be read
+     */
+    AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException;
+
+    /**
+     * Function that fetches and parses the JWK set.
+     *
+     * @return the JWK set, or null if unavailable
+     * @throws IOException if the keys cannot be read or parsed
+     */
+    default AppleJWKSet fetchJWKSet() throws IOException {
+        AppleKeysResponse response = fetchKeys(null, null);
+        if (response == null || response.getBody() == null) {
+            return null;
+        }
+        JsonReader reader = new JsonReader(new StringReader(response.getBody()));
+        reader.setLenient(true);
+        try {
+            return AppleJWKSet.read(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed JWK set", e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.ebayopensource.apple.idtoken.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Counters and latencies of the key cache of one ApplePublicKeysManager: lookups served from the cached keys
+ * or not, and the count, latency and failures of key refreshes.
+ *
+ * Recording only adds to LongAdders, and snapshots are read without locking.
+ */
+public final class KeysMetrics {
+
+    private final LongAdder cacheHitCount = new LongAdder();
+    private final LongAdder cacheMissCount = new LongAdder();
+    private final LongAdder refreshFailureCount = new LongAdder();
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
+
+    /** Records a key lookup served by the keys already held. */
+    public void recordCacheHit() {
+        cacheHitCount.increment();
+    }
+
+    /** Records a key lookup that had to wait for a refresh, or found no key with its identifier. */
+    public void recordCacheMiss() {
+        cacheMissCount.increment();
+    }
+
+    /**
+     * Records one refresh of the keys.
+     * @param nanos time the refresh took, in nanoseconds
+     * @param failed whether the refresh failed
+     */
+    public void recordRefresh(long nanos, boolean failed) {
+        refreshLatency.record(nanos);
+        if (failed) {
+            refreshFailureCount.increment();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(cacheHitCount.sum(), cacheMissCount.sum(), refreshFailureCount.sum(),
+                refreshLatency.snapshot());
+    }
+
+    /** Counters and latencies of a key cache at one point in time. */
+    public static final class Snapshot {
+
+        private final long cacheHitCount;
+        private final long cacheMissCount;
+        private final long refreshFailureCount;
+        private final LatencyHistogram.Snapshot refreshLatency;
+
+        private Snapshot(long cacheHitCount, long cacheMissCount, long refreshFailureCount,
+                         LatencyHistogram.Snapshot refreshLatency) {
+            this.cacheHitCount = cacheHitCount;
+            this.cacheMissCount = cacheMissCount;
+            this.refreshFailureCount = refreshFailureCount;
+            this.refreshLatency = refreshLatency;
+        }
+
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        public long getCacheMissCount() {
+            return cacheMissCount;
+        }
+
+        /** Returns the number of refreshes, failed or not, including conditional ones answered by not modified. */
+        public long getRefreshCount() {
+            return refreshLatency.getCount();
+        }
+
+        public long getRefreshFailureCount() {
+            return refreshFailureCount;
+        }
+
+        public LatencyHistogram.Snapshot getRefreshLatency() {
+            return refreshLatency;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.ebayopensource.apple.idtoken.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Latency histogram with fixed buckets, from 10 microseconds to 10 seconds.
+ *
+ * Each bucket is a LongAdder, so concurrent recordings neither lock nor contend on a single counter.
+ * Snapshots are read without locking; a snapshot taken while latencies are recorded may miss the latest ones.
+ */
+public final class LatencyHistogram {
+
+    /** Upper bounds of the buckets, in microseconds. Latencies above the last bound fall in an overflow bucket. */
+    private static final long[] BUCKET_UPPER_BOUNDS_MICROS = {
+            10, 25, 50, 100, 250, 500,
+            1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_UPPER_BOUNDS_MICROS.length + 1];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one latency.
+     * @param nanos latency in nanoseconds, as measured with System.nanoTime
+     */
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        int index = Arrays.binarySearch(BUCKET_UPPER_BOUNDS_MICROS, micros);
+        buckets[index >= 0 ? index : -index - 1].increment();
+        totalNanos.add(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, totalNanos.sum());
+    }
+
+    /** Counts of a histogram at one point in time. */
+    public static final class Snapshot {
+
+        private final long[] bucketCounts;
+        private final long count;
+        private final long totalNanos;
+
+        private Snapshot(long[] bucketCounts, long totalNanos) {
+            this.bucketCounts = bucketCounts;
+            long sum = 0;
+            for (long bucketCount : bucketCounts) {
+                sum += bucketCount;
+            }
+            this.count = sum;
+            this.totalNanos = totalNanos;
+        }
+
+        /** Returns the number of recorded latencies. */
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** Returns the mean latency in microseconds, or 0 if none was recorded. */
+        public double getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / 1000.0 / count;
+        }
+
+        /** Returns the upper bounds of the buckets in microseconds; the last bucket, beyond them, has none. */
+        public long[] getBucketUpperBoundsMicros() {
+            return BUCKET_UPPER_BOUNDS_MICROS.clone();
+        }
+
+        /** Returns the number of latencies in each bucket, the overflow bucket last. */
+        public long[] getBucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        /**
+         * Returns the upper bound, in microseconds, of the bucket holding the given percentile: an estimate
+         * no lower than the actual latency.
+         * @param percentile percentile between 0 and 100
+         * @return upper bound in microseconds, Long.MAX_VALUE in the overflow bucket, or 0 if none was recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_UPPER_BOUNDS_MICROS.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return BUCKET_UPPER_BOUNDS_MICROS[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
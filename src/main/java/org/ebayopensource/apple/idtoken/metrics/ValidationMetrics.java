@@ -0,0 +1,163 @@
+package org.ebayopensource.apple.idtoken.metrics;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+/**
+ * Counters and latencies of the ID token verifications of one validator: outcomes per IDTokenErrorEnum,
+ * and the time spent parsing tokens, checking their claims and verifying their signatures.
+ *
+ * Recording only adds to LongAdders, and snapshots are read without locking.
+ */
+public final class ValidationMetrics {
+
+    private static final IDTokenErrorEnum[] ERRORS = IDTokenErrorEnum.values();
+
+    private final LongAdder validCount = new LongAdder();
+
+    /** Rejected verifications, indexed by the ordinal of their IDTokenErrorEnum. */
+    private final LongAdder[] rejectionCounts = new LongAdder[ERRORS.length];
+
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram claimsCheckLatency = new LatencyHistogram();
+    private final LatencyHistogram signatureVerificationLatency = new LatencyHistogram();
+
+    public ValidationMetrics() {
+        for (int i = 0; i < rejectionCounts.length; i++) {
+            rejectionCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the outcome of one verification.
+     * @param errorEnum reason the token was rejected, or null for a valid token
+     */
+    public void recordOutcome(IDTokenErrorEnum errorEnum) {
+        if (errorEnum == null) {
+            validCount.increment();
+        } else {
+            rejectionCounts[errorEnum.ordinal()].increment();
+        }
+    }
+
+    public void recordParse(long nanos) {
+        parseLatency.record(nanos);
+    }
+
+    public void recordClaimsCheck(long nanos) {
+        claimsCheckLatency.record(nanos);
+    }
+
+    public void recordSignatureVerification(long nanos) {
+        signatureVerificationLatency.record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        Map<IDTokenErrorEnum, Long> rejections = new EnumMap<IDTokenErrorEnum, Long>(IDTokenErrorEnum.class);
+        long rejectionCount = 0;
+        for (IDTokenErrorEnum errorEnum : ERRORS) {
+            long count = rejectionCounts[errorEnum.ordinal()].sum();
+            rejections.put(errorEnum, count);
+            rejectionCount += count;
+        }
+        return new Snapshot(System.currentTimeMillis(), validCount.sum(), rejectionCount,
+                Collections.unmodifiableMap(rejections), parseLatency.snapshot(), claimsCheckLatency.snapshot(),
+                signatureVerificationLatency.snapshot());
+    }
+
+    /** Counters and latencies of a validator at one point in time. */
+    public static final class Snapshot {
+
+        private final long timeInMillis;
+        private final long validCount;
+        private final long rejectionCount;
+        private final Map<IDTokenErrorEnum, Long> rejectionCounts;
+        private final LatencyHistogram.Snapshot parseLatency;
+        private final LatencyHistogram.Snapshot claimsCheckLatency;
+        private final LatencyHistogram.Snapshot signatureVerificationLatency;
+
+        private Snapshot(long timeInMillis, long validCount, long rejectionCount,
+                         Map<IDTokenErrorEnum, Long> rejectionCounts, LatencyHistogram.Snapshot parseLatency,
+                         LatencyHistogram.Snapshot claimsCheckLatency,
+                         LatencyHistogram.Snapshot signatureVerificationLatency) {
+            this.timeInMillis = timeInMillis;
+            this.validCount = validCount;
+            this.rejectionCount = rejectionCount;
+            this.rejectionCounts = rejectionCounts;
+            this.parseLatency = parseLatency;
+            this.claimsCheckLatency = claimsCheckLatency;
+            this.signatureVerificationLatency = signatureVerificationLatency;
+        }
+
+        public long getTimeInMillis() {
+            return timeInMillis;
+        }
+
+        /** Returns the number of verifications, valid or not. */
+        public long getVerificationCount() {
+            return validCount + rejectionCount;
+        }
+
+        public long getValidCount() {
+            return validCount;
+        }
+
+        public long getRejectionCount() {
+            return rejectionCount;
+        }
+
+        /** Returns the number of tokens rejected for the given reason. */
+        public long getRejectionCount(IDTokenErrorEnum errorEnum) {
+            return rejectionCounts.get(errorEnum);
+        }
+
+        /** Returns the number of rejected tokens per reason, including reasons never seen. */
+        public Map<IDTokenErrorEnum, Long> getRejectionCounts() {
+            return rejectionCounts;
+        }
+
+        /**
+         * Returns the number of verifications per second between an earlier snapshot and this one.
+         * @param earlier snapshot of the same metrics taken before this one
+         * @return verifications per second, or 0 if both snapshots were taken within the same millisecond
+         */
+        public double getVerificationsPerSecond(Snapshot earlier) {
+            long elapsedMillis = timeInMillis - earlier.timeInMillis;
+            return elapsedMillis <= 0 ? 0 : (getVerificationCount() - earlier.getVerificationCount()) * 1000.0 / elapsedMillis;
+        }
+
+        public LatencyHistogram.Snapshot getParseLatency() {
+            return parseLatency;
+        }
+
+        public LatencyHistogram.Snapshot getClaimsCheckLatency() {
+            return claimsCheckLatency;
+        }
+
+        /** Returns the latency of signature verifications, excluding the key lookup and tokens served by a cache. */
+        public LatencyHistogram.Snapshot getSignatureVerificationLatency() {
+            return signatureVerificationLatency;
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package org.ebayopensource.apple.idtoken;
 
 import org.ebayopensource.apple.idtoken.entities.AppleUserInfo;
+import org.ebayopensource.apple.idtoken.keysource.InMemoryKeySource;
+import org.ebayopensource.apple.idtoken.metrics.KeysMetrics;
+import org.ebayopensource.apple.idtoken.metrics.ValidationMetrics;
 import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
 import org.ebayopensource.apple.idtoken.util.IDTokenException;
 import org.ebayopensource.apple.idtoken.util.TestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.security.KeyPair;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 
 /************************************************************************
@@ -273,4 +283,286 @@ public class AppleIDTokenValidatorTest {
 
     }
 
+    @Test
+    public void testVerifyAppleIDTokenUnsupportedAlgorithm() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "HS256", System.currentTimeMillis()+300000);
+        try {
+            appleIDTokenValidator.verifyAppleIDToken(idToken, null, null);
+            Assert.fail("Expected IDTokenException but no exception encountered.");
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, e.getErrorEnum());
+        }
+    }
+
+    @Test
+    public void testVerifyAppleIDTokenMissingKeyId() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature(null, "RS256", System.currentTimeMillis()+300000);
+        try {
+            appleIDTokenValidator.verifyAppleIDToken(idToken, null, null);
+            Assert.fail("Expected IDTokenException but no exception encountered.");
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, e.getErrorEnum());
+        }
+    }
+
+    @Test
+    public void testVerifyAppleIDTokensBatchPreservesOrder() {
+        List<String> idTokens = Arrays.asList(
+                null,
+                TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", 1000),
+                TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "HS256", System.currentTimeMillis()+300000),
+                "abcd. .adefg");
+
+        List<ValidationResult> results = appleIDTokenValidator.verifyAppleIDTokens(idTokens, null);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, results.get(0).getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.EXPIRED_ID_TOKEN, results.get(1).getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, results.get(2).getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, results.get(3).getErrorEnum());
+        for (ValidationResult result : results) {
+            Assert.assertFalse(result.isValid());
+            Assert.assertNull(result.getAppleUserInfo());
+        }
+    }
+
+    @Test
+    public void testVerifyAppleIDTokensEmptyBatch() {
+        Assert.assertTrue(appleIDTokenValidator.verifyAppleIDTokens(null, null).isEmpty());
+        Assert.assertTrue(appleIDTokenValidator.verifyAppleIDTokens(new ArrayList<String>(), null).isEmpty());
+    }
+
+    @Test
+    public void testVerifyAppleIDTokensOnRejectingExecutor() {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        AppleIDTokenValidator validator = new AppleIDTokenValidator(ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "kid1")))
+                .build());
+        long exp = System.currentTimeMillis() + 300000;
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException("saturated");
+        };
+
+        List<ValidationResult> results = validator.verifyAppleIDTokens(Arrays.asList(
+                TestUtils.createSignedJWT(keyPair.getPrivate(), "kid1", null, null, exp),
+                TestUtils.createSignedJWT(TestUtils.generateRSAKeyPair().getPrivate(), "kid1", null, null, exp)),
+                null, rejecting);
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertTrue(results.get(0).isValid());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE, results.get(1).getErrorEnum());
+    }
+
+    @Test
+    public void testVerifyAsyncCompletesInlineOnRejectedClaims() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", System.currentTimeMillis()+300000);
+        List<String> clientIds = new ArrayList<>();
+        clientIds.add("com.xyzCompany.webapp");
+
+        CompletableFuture<ValidationResult> result = appleIDTokenValidator.verifyAsync(idToken, clientIds, null).toCompletableFuture();
+
+        Assert.assertTrue(result.isDone());
+        Assert.assertFalse(result.join().isValid());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, result.join().getErrorEnum());
+    }
+
+    @Test
+    public void testVerifyAsyncCompletesInlineOnExpiredToken() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", 1000);
+
+        CompletableFuture<ValidationResult> result = appleIDTokenValidator.verifyAsync(idToken, null, null).toCompletableFuture();
+
+        Assert.assertTrue(result.isDone());
+        Assert.assertEquals(IDTokenErrorEnum.EXPIRED_ID_TOKEN, result.join().getErrorEnum());
+    }
+
+    @Test
+    public void testVerifyAsyncNeverCompletesExceptionally() throws Exception {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", System.currentTimeMillis()+300000);
+
+        ValidationResult result = appleIDTokenValidator.verifyAsync(idToken, null, null)
+                .toCompletableFuture().get(60, TimeUnit.SECONDS);
+
+        Assert.assertFalse(result.isValid());
+        Assert.assertNotNull(result.getErrorEnum());
+    }
+
+    @Test
+    public void testVerifyAppleIDTokenExpiredBeforeSignature() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", 1000);
+        try {
+            appleIDTokenValidator.verifyAppleIDToken(idToken, null, null);
+            Assert.fail("Expected IDTokenException but no exception encountered.");
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.EXPIRED_ID_TOKEN, e.getErrorEnum());
+        }
+    }
+
+    @Test
+    public void testVerifyAppleIDTokenTooLong() {
+        String idToken = TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", System.currentTimeMillis()+300000);
+        AppleIDTokenValidator validator = new AppleIDTokenValidator().setMaxIDTokenLength(idToken.length() - 1);
+        boolean result = true;
+        try {
+            result = validator.verifyAppleIDToken(idToken, null, null);
+        } catch (IDTokenException e) {
+            Assert.fail("IDTokenException exception encountered: "+e.getMessage());
+        }
+        Assert.assertFalse(result);
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN,
+                validator.verifyAsync(idToken, null, null).toCompletableFuture().join().getErrorEnum());
+    }
+
+    @Test
+    public void testVerifyAppleIDTokenWithIssuerNotMatchingExactly() throws Exception {
+        String idToken = TestUtils.createValidJWTWithFakeSignature("https://appleid.apple.com.evil.com", null, null, System.currentTimeMillis()+300000);
+
+        Assert.assertFalse(appleIDTokenValidator.verifyAppleIDToken(idToken, null, null));
+    }
+
+    @Test
+    public void testVerifyAppleIDTokenWithPolicyAudiences() throws Exception {
+        AppleIDTokenValidator policyValidator = new AppleIDTokenValidator(AppleTokenPolicy.builder()
+                .setAudiences(Arrays.asList("com.xyzCompany.app", "com.xyzCompany.webapp"))
+                .build());
+        String idToken = TestUtils.createValidJWTWithFakeSignature(null, "com.abcCompany.webapp", null, System.currentTimeMillis()+300000);
+
+        Assert.assertFalse(policyValidator.verifyAppleIDToken(idToken, null));
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN,
+                policyValidator.verifyAsync(idToken, null).toCompletableFuture().join().getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN,
+                policyValidator.verifyAppleIDTokens(Arrays.asList(idToken)).get(0).getErrorEnum());
+    }
+
+    @Test
+    public void testValidateNeverThrows() {
+        ValidationResult expired = appleIDTokenValidator.validate(
+                TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "RS256", 1000), null, null);
+        ValidationResult undecodable = appleIDTokenValidator.validate(
+                "eyJhbGciOiJub25lIn0.bm90LWpzb24.thisisafakesignature", null, null);
+        ValidationResult malformed = appleIDTokenValidator.validate("abcd.abcd", null, null);
+        ValidationResult unsupportedHeader = appleIDTokenValidator.validate(
+                TestUtils.createJWTWithHeaderAndFakeSignature("AIDOPK1", "HS256", System.currentTimeMillis()+300000), null);
+
+        Assert.assertEquals(IDTokenErrorEnum.EXPIRED_ID_TOKEN, expired.getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, undecodable.getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, malformed.getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, unsupportedHeader.getErrorEnum());
+        for (ValidationResult result : Arrays.asList(expired, undecodable, malformed, unsupportedHeader)) {
+            Assert.assertFalse(result.isValid());
+            Assert.assertNull(result.getAppleUserInfo());
+        }
+    }
+
+    @Test
+    public void testValidateRejectionsAreShared() {
+        String idToken = TestUtils.createValidJWTWithFakeSignature(null, "com.abcCompany.webapp", null, System.currentTimeMillis()+300000);
+        List<String> clientIds = Arrays.asList("com.xyzCompany.webapp");
+
+        ValidationResult first = appleIDTokenValidator.validate(idToken, clientIds, null);
+        ValidationResult second = appleIDTokenValidator.validate(idToken, clientIds, null);
+
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, first.getErrorEnum());
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testMetricsRecorded() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        KeyPair otherKeyPair = TestUtils.generateRSAKeyPair();
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "kid1")))
+                .build();
+        AppleIDTokenValidator validator = new AppleIDTokenValidator(keysManager);
+        long exp = System.currentTimeMillis() + 300000;
+        ValidationMetrics.Snapshot before = validator.getMetrics();
+
+        Assert.assertTrue(validator.validate(TestUtils.createSignedJWT(keyPair.getPrivate(), "kid1",
+                TestUtils.getDefaultIssuer(), null, null, exp), null).isValid());
+        Assert.assertFalse(validator.validate(TestUtils.createSignedJWT(otherKeyPair.getPrivate(), "kid1",
+                TestUtils.getDefaultIssuer(), null, null, exp), null).isValid());
+        Assert.assertFalse(validator.validate("not.a.token", null).isValid());
+        Assert.assertTrue(validator.verifyAsync(TestUtils.createSignedJWT(keyPair.getPrivate(), "kid1",
+                TestUtils.getDefaultIssuer(), null, null, exp), null).toCompletableFuture().get(10, TimeUnit.SECONDS).isValid());
+
+        ValidationMetrics.Snapshot metrics = validator.getMetrics();
+        Assert.assertEquals(4, metrics.getVerificationCount());
+        Assert.assertEquals(2, metrics.getValidCount());
+        Assert.assertEquals(1, metrics.getRejectionCount(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE));
+        Assert.assertEquals(1, metrics.getRejectionCount(IDTokenErrorEnum.INVALID_ID_TOKEN));
+        Assert.assertEquals(0, metrics.getRejectionCount(IDTokenErrorEnum.EXPIRED_ID_TOKEN));
+        Assert.assertEquals(4, metrics.getParseLatency().getCount());
+        Assert.assertEquals(4, metrics.getClaimsCheckLatency().getCount());
+        Assert.assertEquals(3, metrics.getSignatureVerificationLatency().getCount());
+        Assert.assertTrue(metrics.getVerificationsPerSecond(before) >= 0);
+
+        KeysMetrics.Snapshot keysMetrics = keysManager.getMetrics();
+        Assert.assertEquals(1, keysMetrics.getCacheMissCount());
+        Assert.assertEquals(2, keysMetrics.getCacheHitCount());
+        Assert.assertEquals(1, keysMetrics.getRefreshCount());
+        Assert.assertEquals(0, keysMetrics.getRefreshFailureCount());
+    }
+
+    @Test
+    public void testTokensRoutedToTheirIssuer() throws Exception {
+        KeyPair appleKeyPair = TestUtils.generateRSAKeyPair();
+        KeyPair otherKeyPair = TestUtils.generateRSAKeyPair();
+        AppleTokenPolicy otherPolicy = AppleTokenPolicy.builder().setIssuer("https://accounts.example.com").build();
+        IssuerRegistry registry = IssuerRegistry.builder()
+                .addIssuer(AppleTokenPolicy.DEFAULT,
+                        ApplePublicKeysManager.builder()
+                                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(appleKeyPair.getPublic(), "kid1")))
+                                .build())
+                .addIssuer(otherPolicy,
+                        ApplePublicKeysManager.builder()
+                                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(otherKeyPair.getPublic(), "kid1")))
+                                .build())
+                .build();
+        AppleIDTokenValidator validator = new AppleIDTokenValidator(registry);
+        long exp = System.currentTimeMillis() + 300000;
+
+        Assert.assertTrue(validator.validate(TestUtils.createSignedJWT(appleKeyPair.getPrivate(), "kid1",
+                TestUtils.getDefaultIssuer(), null, null, exp), null).isValid());
+        Assert.assertTrue(validator.validate(TestUtils.createSignedJWT(otherKeyPair.getPrivate(), "kid1",
+                "https://accounts.example.com", null, null, exp), null).isValid());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE, validator.validate(TestUtils.createSignedJWT(
+                appleKeyPair.getPrivate(), "kid1", "https://accounts.example.com", null, null, exp), null).getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, validator.validate(TestUtils.createSignedJWT(
+                otherKeyPair.getPrivate(), "kid1", "https://unknown.example.com", null, null, exp), null).getErrorEnum());
+
+        List<ValidationResult> results = validator.verifyAppleIDTokens(Arrays.asList(
+                TestUtils.createSignedJWT(appleKeyPair.getPrivate(), "kid1", TestUtils.getDefaultIssuer(), null, null, exp),
+                TestUtils.createSignedJWT(otherKeyPair.getPrivate(), "kid1", "https://accounts.example.com", null, null, exp)));
+        Assert.assertTrue(results.get(0).isValid());
+        Assert.assertTrue(results.get(1).isValid());
+        Assert.assertTrue(validator.verifyAsync(TestUtils.createSignedJWT(otherKeyPair.getPrivate(), "kid1",
+                "https://accounts.example.com", null, null, exp), null).toCompletableFuture().get(10, TimeUnit.SECONDS).isValid());
+        Assert.assertSame(AppleTokenPolicy.DEFAULT, validator.getTokenPolicy());
+    }
+
+    @Test
+    public void testAudienceArrayAccepted() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        AppleTokenPolicy policy = AppleTokenPolicy.builder()
+                .setIssuer("https://accounts.example.com")
+                .setAudiences(Collections.singletonList("com.xyzCompany.webapp"))
+                .build();
+        IssuerRegistry registry = IssuerRegistry.builder()
+                .addIssuer(policy, ApplePublicKeysManager.builder()
+                        .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "kid1")))
+                        .build())
+                .build();
+        AppleIDTokenValidator validator = new AppleIDTokenValidator(registry);
+        long exp = System.currentTimeMillis() + 300000;
+        String idToken = TestUtils.createSignedJWTWithAudiences(keyPair.getPrivate(), "kid1",
+                "https://accounts.example.com", Arrays.asList("com.xyzCompany.app", "com.xyzCompany.webapp"), exp);
+
+        Assert.assertTrue("any audience matches the policy", validator.validate(idToken, null).isValid());
+        Assert.assertTrue(validator.validate(idToken, Collections.singletonList("com.xyzCompany.app"), null).isValid());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, validator.validate(idToken,
+                Collections.singletonList("com.abcCompany.app"), null).getErrorEnum());
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN, validator.validate(TestUtils.createSignedJWTWithAudiences(
+                keyPair.getPrivate(), "kid1", "https://accounts.example.com",
+                Collections.singletonList("com.abcCompany.app"), exp), null).getErrorEnum());
+    }
 }
@@ -0,0 +1,64 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class ApplePublicKeysChangeTest {
+
+    @Test
+    public void testChangeBetweenSnapshots() {
+        ApplePublicKeysSnapshot previous = snapshot("kid1", "kid1.n1.e", "kid2", "kid2.n2.e", "kid3", "kid3.n3.e");
+        ApplePublicKeysSnapshot current = snapshot("kid2", "kid2.n2.e", "kid3", "kid3.n4.e", "kid4", "kid4.n5.e");
+
+        ApplePublicKeysChange change = ApplePublicKeysChange.between(previous, current);
+
+        Assert.assertEquals(Arrays.asList("kid3", "kid4"), change.getAddedKids());
+        Assert.assertEquals(Collections.singletonList("kid2"), change.getKeptKids());
+        Assert.assertEquals(Arrays.asList("kid1", "kid3"), change.getRemovedKids());
+        Assert.assertTrue(change.isChanged());
+    }
+
+    @Test
+    public void testFirstSnapshotAddsEveryKey() {
+        ApplePublicKeysChange change = ApplePublicKeysChange.between(null, snapshot("kid1", "kid1.n1.e"));
+
+        Assert.assertEquals(Collections.singletonList("kid1"), change.getAddedKids());
+        Assert.assertTrue(change.getRemovedKids().isEmpty());
+        Assert.assertFalse(ApplePublicKeysChange.between(snapshot("kid1", "kid1.n1.e"), snapshot("kid1", "kid1.n1.e"))
+                .isChanged());
+    }
+
+    private static ApplePublicKeysSnapshot snapshot(String... kidsAndFingerprints) {
+        Map<String, String> fingerprintsByKid = new LinkedHashMap<String, String>();
+        for (int i = 0; i < kidsAndFingerprints.length; i += 2) {
+            fingerprintsByKid.put(kidsAndFingerprints[i], kidsAndFingerprints[i + 1]);
+        }
+        return new ApplePublicKeysSnapshot(new ArrayList<PublicKey>(), new HashMap<String, RS256SignatureVerifier>(),
+                0, 0, null, null, null, fingerprintsByKid);
+    }
+}
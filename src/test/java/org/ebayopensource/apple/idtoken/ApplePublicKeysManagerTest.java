@@ -1,10 +1,29 @@
 package org.ebayopensource.apple.idtoken;
 
+import java.io.IOException;
+import java.security.KeyPair;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.ebayopensource.apple.idtoken.httpclient.AppleHttpClient;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+import org.ebayopensource.apple.idtoken.keysource.HttpKeySource;
+import org.ebayopensource.apple.idtoken.keysource.InMemoryKeySource;
+import org.ebayopensource.apple.idtoken.keysource.KeySource;
 import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
 import org.ebayopensource.apple.idtoken.util.IDTokenException;
+import org.ebayopensource.apple.idtoken.util.TestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -129,9 +148,594 @@ public class ApplePublicKeysManagerTest {
 
     }
 
+    @Test
+    public void testBackgroundRefreshFailureReported() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<IDTokenException> failure = new AtomicReference<IDTokenException>();
+        try {
+            applePublicKeysManager.setProxyHost("testhost").setProxyPort(8080);
+            // Keep the backoff of the failed refreshes from delaying other tests.
+            applePublicKeysManager.setRefreshRetryIntervalMilliseconds(1).setMaxRefreshRetryIntervalMilliseconds(1)
+                    .setCircuitBreakerFailureThreshold(Integer.MAX_VALUE);
+            applePublicKeysManager.setRefreshFailureListener(e -> {
+                failure.set(e);
+                failed.countDown();
+            }).startBackgroundRefresh(scheduler);
+
+            Assert.assertTrue(applePublicKeysManager.isBackgroundRefreshStarted());
+            Assert.assertTrue(failed.await(60, TimeUnit.SECONDS));
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, failure.get().getErrorEnum());
+        } finally {
+            applePublicKeysManager.stopBackgroundRefresh();
+            applePublicKeysManager.setRefreshFailureListener(null);
+            scheduler.shutdownNow();
+            applePublicKeysManager.setCircuitBreakerFailureThreshold(5);
+            resetProxConfig();
+        }
+        Assert.assertFalse(applePublicKeysManager.isBackgroundRefreshStarted());
+    }
+
+    @Test
+    public void testOwnedRefreshSchedulerShutDownOnStop() throws Exception {
+        PublicKey key = TestUtils.generateRSAKeyPair().getPublic();
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(key, "BGKID1")))
+                .build();
+        int threadsBefore = countRefreshThreads();
+        for (int i = 0; i < 3; i++) {
+            keysManager.startBackgroundRefresh();
+            keysManager.startBackgroundRefresh();
+            keysManager.stopBackgroundRefresh();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countRefreshThreads() > threadsBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(countRefreshThreads() <= threadsBefore);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            keysManager.startBackgroundRefresh(scheduler);
+            keysManager.stopBackgroundRefresh();
+            Assert.assertFalse(scheduler.isShutdown());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static int countRefreshThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && "apple-public-keys-refresh".equals(thread.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testBackgroundRefreshDelay() {
+        long now = System.currentTimeMillis();
+        ApplePublicKeysSnapshot fresh = new ApplePublicKeysSnapshot(new ArrayList<PublicKey>(),
+                new HashMap<String, RS256SignatureVerifier>(), now, now + 1000000);
+        ApplePublicKeysSnapshot expiring = new ApplePublicKeysSnapshot(new ArrayList<PublicKey>(),
+                new HashMap<String, RS256SignatureVerifier>(), now - 1000000, now + 1000);
+
+        long delay = applePublicKeysManager.setRefreshAheadMilliseconds(300000).setRefreshJitterMilliseconds(60000)
+                .getBackgroundRefreshDelay(fresh, now);
+
+        Assert.assertTrue(delay >= 640000 && delay <= 700000);
+        Assert.assertEquals(0, applePublicKeysManager.getBackgroundRefreshDelay(expiring, now));
+    }
+
+    @Test
+    public void testRefreshRetryDelayBacksOffExponentially() {
+        applePublicKeysManager.setRefreshRetryIntervalMilliseconds(30000).setMaxRefreshRetryIntervalMilliseconds(600000);
+
+        Assert.assertEquals(30000, applePublicKeysManager.getRefreshRetryDelay(1));
+        Assert.assertEquals(60000, applePublicKeysManager.getRefreshRetryDelay(2));
+        Assert.assertEquals(240000, applePublicKeysManager.getRefreshRetryDelay(4));
+        Assert.assertEquals(600000, applePublicKeysManager.getRefreshRetryDelay(6));
+        Assert.assertEquals(600000, applePublicKeysManager.getRefreshRetryDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testExplicitRefreshFailureCounted() {
+        int failures = applePublicKeysManager.getConsecutiveRefreshFailures();
+        try {
+            applePublicKeysManager.setProxyHost("testhost").setProxyPort(8080);
+            applePublicKeysManager.refreshApplePublicKeys();
+            Assert.fail();
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, e.getErrorEnum());
+            Assert.assertTrue(applePublicKeysManager.getConsecutiveRefreshFailures() > failures);
+        } finally {
+            resetProxConfig();
+        }
+    }
+
+    @Test
+    public void testKeysTimeToLiveBoundedByConfiguration() {
+        long refreshSkew = applePublicKeysManager.getRefreshSkewMilliseconds();
+        try {
+            applePublicKeysManager.setRefreshSkewMilliseconds(86400000)
+                    .setMinKeysTimeToLiveMilliseconds(300000).setMaxKeysTimeToLiveMilliseconds(3600000);
+
+            Assert.assertEquals(86400000, applePublicKeysManager.getKeysTimeToLive(-1));
+            Assert.assertEquals(300000, applePublicKeysManager.getKeysTimeToLive(0));
+            Assert.assertEquals(1800000, applePublicKeysManager.getKeysTimeToLive(1800000));
+            Assert.assertEquals(3600000, applePublicKeysManager.getKeysTimeToLive(7200000));
+        } finally {
+            applePublicKeysManager.setRefreshSkewMilliseconds(refreshSkew)
+                    .setMinKeysTimeToLiveMilliseconds(300000).setMaxKeysTimeToLiveMilliseconds(86400000);
+        }
+    }
+
+    @Test
+    public void testKeysFetchedFromConfiguredKeySource() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        KeySource keySource = applePublicKeysManager.getKeySource();
+        try {
+            applePublicKeysManager.setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "LOCALKID1")));
+            applePublicKeysManager.refreshApplePublicKeys();
+
+            Assert.assertTrue(applePublicKeysManager.getApplePublicKeys().contains(keyPair.getPublic()));
+            String idToken = TestUtils.createSignedJWT(keyPair.getPrivate(), "LOCALKID1", "com.abcCompany.webapp", null,
+                    System.currentTimeMillis() + 300000);
+            Assert.assertTrue(new AppleIDTokenValidator().verifyAppleIDToken(idToken,
+                    Collections.singletonList("com.abcCompany.webapp"), null));
+        } finally {
+            applePublicKeysManager.setKeySource(keySource);
+        }
+    }
+
+    @Test
+    public void testRefreshReusesUnchangedKeys() throws Exception {
+        PublicKey key1 = TestUtils.generateRSAKeyPair().getPublic();
+        PublicKey key2 = TestUtils.generateRSAKeyPair().getPublic();
+        PublicKey key3 = TestUtils.generateRSAKeyPair().getPublic();
+        final List<ApplePublicKeysChange> changes = new ArrayList<ApplePublicKeysChange>();
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource("{\"keys\":[" + TestUtils.createJWK(key1, "ROTKID1") + ","
+                        + TestUtils.createJWK(key2, "ROTKID2") + "]}"))
+                .build()
+                .setKeysChangeListener(changes::add);
+        keysManager.refreshApplePublicKeys();
+        RS256SignatureVerifier verifier2 = keysManager.getSignatureVerifier("ROTKID2");
+
+        keysManager.setKeySource(new InMemoryKeySource("{\"keys\":[" + TestUtils.createJWK(key2, "ROTKID2")
+                + "," + TestUtils.createJWK(key3, "ROTKID3") + "]}"));
+        keysManager.refreshApplePublicKeys();
+
+        Assert.assertSame(verifier2, keysManager.getSignatureVerifier("ROTKID2"));
+        Assert.assertEquals(key3, keysManager.getSignatureVerifier("ROTKID3").getPublicKey());
+        ApplePublicKeysChange change = keysManager.getLastKeysChange();
+        Assert.assertEquals(Collections.singletonList("ROTKID3"), change.getAddedKids());
+        Assert.assertEquals(Collections.singletonList("ROTKID2"), change.getKeptKids());
+        Assert.assertEquals(Collections.singletonList("ROTKID1"), change.getRemovedKids());
+        Assert.assertSame(change, changes.get(changes.size() - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKeySourceRejected() {
+        applePublicKeysManager.setKeySource(null);
+    }
+
+    @Test
+    public void testBuiltManagersAreIndependent() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        ApplePublicKeysManager first = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "OWNKID1")))
+                .setRefreshSkewMilliseconds(60000)
+                .build();
+        ApplePublicKeysManager second = ApplePublicKeysManager.builder()
+                .setProxy("proxy.example.com", 3128)
+                .setConnectTimeoutMilliseconds(1000)
+                .build();
+
+        first.refreshApplePublicKeys();
+
+        Assert.assertNotSame(applePublicKeysManager, first);
+        Assert.assertNotNull(first.getSignatureVerifier("OWNKID1"));
+        Assert.assertEquals(-1, second.getKeyStalenessMilliseconds());
+        Assert.assertEquals(60000, first.getRefreshSkewMilliseconds());
+        Assert.assertFalse(applePublicKeysManager.isProxyEnabled());
+        Assert.assertTrue(second.isProxyEnabled());
+        AppleHttpClient client = ((HttpKeySource) second.getKeySource()).getAppleHttpClient();
+        Assert.assertNotSame(AppleHttpClient.getAppleHttpClient(), client);
+        Assert.assertEquals(1000, client.getConnectTimeoutMilliseconds());
+
+        String idToken = TestUtils.createSignedJWT(keyPair.getPrivate(), "OWNKID1", "com.abcCompany.webapp", null,
+                System.currentTimeMillis() + 300000);
+        Assert.assertTrue(new AppleIDTokenValidator(first).verifyAppleIDToken(idToken,
+                Collections.singletonList("com.abcCompany.webapp"), null));
+    }
+
+    @Test
+    public void testCloseReleasesWhatTheManagerCreated() throws Exception {
+        ApplePublicKeysManager httpManager = ApplePublicKeysManager.builder()
+                .setJwksUri("http://127.0.0.1:1/keys")
+                .build();
+        AppleHttpClient client = ((HttpKeySource) httpManager.getKeySource()).getAppleHttpClient();
+        ExecutorService ownExecutor = (ExecutorService) httpManager.getKeyFetchExecutor();
+        httpManager.startBackgroundRefresh();
+
+        httpManager.close();
+
+        Assert.assertTrue(client.isShutdown());
+        Assert.assertTrue(ownExecutor.isShutdown());
+        Assert.assertFalse(httpManager.isBackgroundRefreshStarted());
+
+        ExecutorService callerExecutor = Executors.newSingleThreadExecutor();
+        try {
+            ApplePublicKeysManager sourceManager = ApplePublicKeysManager.builder()
+                    .setKeySource(new InMemoryKeySource("{\"keys\":[]}"))
+                    .setKeyFetchExecutor(callerExecutor)
+                    .build();
+            sourceManager.close();
+            Assert.assertFalse(callerExecutor.isShutdown());
+        } finally {
+            callerExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testKeyFetchExecutorCreatedOnFirstUse() {
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource("{\"keys\":[]}"))
+                .build();
+        Executor executor = keysManager.getKeyFetchExecutor();
+        Assert.assertSame(executor, keysManager.getKeyFetchExecutor());
+        keysManager.close();
+        Assert.assertTrue(((ExecutorService) executor).isShutdown());
+
+        ApplePublicKeysManager unused = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource("{\"keys\":[]}"))
+                .build();
+        unused.close();
+        Assert.assertTrue(((ExecutorService) unused.getKeyFetchExecutor()).isShutdown());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharedManagerCannotBeClosed() {
+        applePublicKeysManager.close();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneFetch() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "SFKID1"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+        keysManager.setRefreshRetryIntervalMilliseconds(1).setMaxRefreshRetryIntervalMilliseconds(1);
+
+        CountDownLatch release = keySource.block();
+        List<Object> results = getSignatureVerifiersConcurrently(keysManager, "SFKID1", 8, release);
+
+        Assert.assertEquals("one fetch for every caller", 1, keySource.getFetchCount());
+        RS256SignatureVerifier verifier = (RS256SignatureVerifier) results.get(0);
+        Assert.assertNotNull(verifier);
+        for (Object result : results) {
+            Assert.assertSame("every caller sees the same snapshot", verifier, result);
+        }
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testFailedFetchFailsEveryWaiter() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "SFKID2"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+        keysManager.setRefreshRetryIntervalMilliseconds(1).setMaxRefreshRetryIntervalMilliseconds(1);
+
+        keySource.setFailing(true);
+        CountDownLatch release = keySource.block();
+        List<Object> results = getSignatureVerifiersConcurrently(keysManager, "SFKID2", 8, release);
+
+        Assert.assertEquals("one fetch for every caller", 1, keySource.getFetchCount());
+        for (Object result : results) {
+            Assert.assertTrue(result instanceof IDTokenException);
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, ((IDTokenException) result).getErrorEnum());
+        }
+
+        // The failed refresh is not shared with later callers: once the backoff expires, the next one fetches again.
+        keySource.setFailing(false);
+        Thread.sleep(10);
+        Assert.assertNotNull(keysManager.getSignatureVerifier("SFKID2"));
+        Assert.assertEquals(2, keySource.getFetchCount());
+        Assert.assertEquals(0, keysManager.getConsecutiveRefreshFailures());
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testErrorInFetchFailsEveryWaiter() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "SFKID3"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+
+        keySource.setError(new LinkageError("key source broken"));
+        CountDownLatch release = keySource.block();
+        List<Object> results = getSignatureVerifiersConcurrently(keysManager, "SFKID3", 8, release);
+
+        Assert.assertEquals(1, keySource.getFetchCount());
+        int errors = 0;
+        for (Object result : results) {
+            if (result instanceof LinkageError) {
+                errors++;
+            } else {
+                Assert.assertEquals(IDTokenErrorEnum.APPLE_SIGNIN_PUBLIC_KEY_ERROR, ((IDTokenException) result).getErrorEnum());
+            }
+        }
+        Assert.assertEquals("the error reaches the fetching caller only", 1, errors);
+        Assert.assertEquals(1, keysManager.getConsecutiveRefreshFailures());
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testStaleKeysServedWhileRevalidated() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "SWRKID1"));
+        final List<Runnable> revalidations = Collections.synchronizedList(new ArrayList<Runnable>());
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .setKeyFetchExecutor(revalidations::add)
+                .build();
+        keysManager.setRefreshSkewMilliseconds(50).setRefreshRetryIntervalMilliseconds(60000);
+
+        RS256SignatureVerifier verifier = keysManager.getSignatureVerifier("SWRKID1");
+        Assert.assertNotNull(verifier);
+        Thread.sleep(100);
+
+        // Stale-while-revalidate: the expired keys are returned at once, and refreshed once on keyFetchExecutor.
+        Assert.assertSame(verifier, keysManager.getSignatureVerifier("SWRKID1"));
+        Assert.assertSame(verifier, keysManager.getSignatureVerifier("SWRKID1"));
+        Assert.assertEquals("no fetch on the calling thread", 1, keySource.getFetchCount());
+        Assert.assertEquals("one revalidation", 1, revalidations.size());
+
+        // Stale-if-error: the expired keys stay in use while their refresh fails, without another one in the backoff.
+        keySource.setFailing(true);
+        revalidations.remove(0).run();
+        Assert.assertEquals(2, keySource.getFetchCount());
+        Assert.assertEquals(1, keysManager.getConsecutiveRefreshFailures());
+        Assert.assertSame(verifier, keysManager.getSignatureVerifier("SWRKID1"));
+        Assert.assertTrue("no revalidation during the backoff", revalidations.isEmpty());
+
+        // Keys too stale to use fail fast during the backoff, rather than waiting for a fetch.
+        keysManager.setMaxStalenessMilliseconds(0);
+        long suppressed = keysManager.getSuppressedRefreshCount();
+        try {
+            keysManager.getSignatureVerifier("SWRKID1");
+            Assert.fail();
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, e.getErrorEnum());
+        }
+        Assert.assertEquals(2, keySource.getFetchCount());
+        Assert.assertEquals(suppressed + 1, keysManager.getSuppressedRefreshCount());
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testUnknownKidRefreshesLimitedToBurst() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "RLKID1"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+        keysManager.setMinForcedRefreshIntervalMilliseconds(0).setForcedRefreshRateLimit(3, 600000);
+
+        Assert.assertNotNull(keysManager.getSignatureVerifier("RLKID1"));
+        long suppressed = keysManager.getSuppressedRefreshCount();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNull(keysManager.getSignatureVerifier("UNKNOWNKID"));
+        }
+
+        Assert.assertEquals("initial fetch and a burst of forced refreshes", 1 + 3, keySource.getFetchCount());
+        Assert.assertEquals(suppressed + 7, keysManager.getSuppressedRefreshCount());
+        Assert.assertNotNull("known keys still served", keysManager.getSignatureVerifier("RLKID1"));
+        Assert.assertEquals(4, keySource.getFetchCount());
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testRateLimitedRefreshKeepsMinIntervalWindow() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "RLKID2"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+        keysManager.setMinForcedRefreshIntervalMilliseconds(300).setForcedRefreshRateLimit(1, 400);
+
+        Assert.assertNotNull(keysManager.getSignatureVerifier("RLKID2"));
+        Assert.assertNull(keysManager.getSignatureVerifier("UNKNOWNKID"));
+        Assert.assertEquals(2, keySource.getFetchCount());
+
+        // Past the minimum interval but before the bucket refills: denied, without using up the interval.
+        Thread.sleep(340);
+        Assert.assertNull(keysManager.getSignatureVerifier("UNKNOWNKID"));
+        Assert.assertEquals(2, keySource.getFetchCount());
+
+        // Once the bucket refills, the next unknown kid refreshes at once rather than a full interval later.
+        Thread.sleep(120);
+        Assert.assertNull(keysManager.getSignatureVerifier("UNKNOWNKID"));
+        Assert.assertEquals(3, keySource.getFetchCount());
+
+        keysManager.close();
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndLetsOneRefreshThrough() throws Exception {
+        StubKeySource keySource = new StubKeySource(TestUtils.createJWKSet(
+                TestUtils.generateRSAKeyPair().getPublic(), "CBKID1"));
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(keySource)
+                .build();
+        keysManager.setRefreshRetryIntervalMilliseconds(1).setMaxRefreshRetryIntervalMilliseconds(1)
+                .setCircuitBreakerFailureThreshold(3).setCircuitBreakerOpenMilliseconds(300);
+        keySource.setFailing(true);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(keysManager.isCircuitBreakerOpen());
+            assertKeysUnavailable(keysManager, "CBKID1");
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, keySource.getFetchCount());
+        Assert.assertTrue("open after the threshold", keysManager.isCircuitBreakerOpen());
+        Assert.assertEquals(1, keysManager.getCircuitBreakerOpenCount());
+
+        // While open, no automatic refresh is attempted, although the retry interval has long passed.
+        assertKeysUnavailable(keysManager, "CBKID1");
+        Assert.assertEquals(3, keySource.getFetchCount());
+
+        // Once the open period is over, one refresh is let through; its failure reopens the breaker.
+        Thread.sleep(350);
+        Assert.assertFalse(keysManager.isCircuitBreakerOpen());
+        assertKeysUnavailable(keysManager, "CBKID1");
+        Assert.assertEquals(4, keySource.getFetchCount());
+        Assert.assertTrue("reopened", keysManager.isCircuitBreakerOpen());
+        Assert.assertEquals(2, keysManager.getCircuitBreakerOpenCount());
+        assertKeysUnavailable(keysManager, "CBKID1");
+        Assert.assertEquals(4, keySource.getFetchCount());
+
+        // The next refresh let through, shared by concurrent callers, succeeds and closes it.
+        Thread.sleep(350);
+        keySource.setFailing(false);
+        CountDownLatch release = keySource.block();
+        for (Object result : getSignatureVerifiersConcurrently(keysManager, "CBKID1", 4, release)) {
+            Assert.assertTrue(result instanceof RS256SignatureVerifier);
+        }
+        Assert.assertEquals(5, keySource.getFetchCount());
+        Assert.assertFalse("closed", keysManager.isCircuitBreakerOpen());
+        Assert.assertEquals(0, keysManager.getConsecutiveRefreshFailures());
+        Assert.assertEquals(2, keysManager.getCircuitBreakerOpenCount());
+
+        keysManager.close();
+    }
+
+    private static void assertKeysUnavailable(ApplePublicKeysManager keysManager, String kid) {
+        try {
+            keysManager.getSignatureVerifier(kid);
+            Assert.fail();
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, e.getErrorEnum());
+        }
+    }
+
+    /**
+     * Calls getSignatureVerifier from the given number of threads while the key source blocks, and releases it
+     * once every thread waits, either in the fetch or on the refresh in flight.
+     *
+     * @return the verifier, or the exception or error, each caller ended with
+     */
+    private static List<Object> getSignatureVerifiersConcurrently(final ApplePublicKeysManager keysManager,
+            final String kid, int callers, CountDownLatch release) throws InterruptedException {
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    results.add(keysManager.getSignatureVerifier(kid));
+                } catch (IDTokenException | Error e) {
+                    results.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!allWaiting(threads) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue("every caller waits for the fetch", allWaiting(threads));
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        Assert.assertEquals(callers, results.size());
+        return results;
+    }
+
+    private static boolean allWaiting(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.getState() != Thread.State.WAITING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderRejectsInvalidTimeout() {
+        ApplePublicKeysManager.builder().setTotalTimeoutMilliseconds(0);
+    }
+
     private void resetProxConfig() {
     	applePublicKeysManager.setProxyEnabled(false);
 
     }
 
+    /** Key source counting its fetches, which can be made to fail, throw an error or block until released. */
+    private static final class StubKeySource implements KeySource {
+
+        private final String keys;
+        private final AtomicInteger fetchCount = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile Error error;
+        private volatile CountDownLatch release;
+
+        StubKeySource(String keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public AppleKeysResponse fetchKeys(String eTag, String lastModified) throws IOException {
+            fetchCount.incrementAndGet();
+            CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (failing) {
+                throw new IOException("keys unavailable");
+            }
+            return new AppleKeysResponse(false, keys, null, null, -1);
+        }
+
+        /** Makes the following fetches block until the returned latch is counted down. */
+        CountDownLatch block() {
+            CountDownLatch latch = new CountDownLatch(1);
+            release = latch;
+            return latch;
+        }
+
+        void setFailing(boolean failing) {
+            this.failing = failing;
+        }
+
+        void setError(Error error) {
+            this.error = error;
+        }
+
+        int getFetchCount() {
+            return fetchCount.get();
+        }
+    }
+
 }
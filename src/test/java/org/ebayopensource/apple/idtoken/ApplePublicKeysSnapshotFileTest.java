@@ -0,0 +1,87 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class ApplePublicKeysSnapshotFileTest {
+
+    private static final String RAW_KEYS = "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"kid1\",\"use\":\"sig\",\"alg\":\"RS256\","
+            + "\"n\":\"AQAB\",\"e\":\"AQAB\"}]}";
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path directory = Files.createTempDirectory("apple-keys");
+        Path path = directory.resolve("keys.json");
+        try {
+            new ApplePublicKeysSnapshotFile(RAW_KEYS, 1000, 2000, "\"etag\"", null).write(path);
+            new ApplePublicKeysSnapshotFile(RAW_KEYS, 3000, 4000, "\"etag\"", null).write(path);
+
+            ApplePublicKeysSnapshotFile file = ApplePublicKeysSnapshotFile.read(path);
+
+            Assert.assertEquals(RAW_KEYS, file.getRawKeys());
+            Assert.assertEquals(3000, file.getFetchTimeInMillis());
+            Assert.assertEquals(4000, file.getExpirationTimeInMillis());
+            Assert.assertEquals("\"etag\"", file.getETag());
+            Assert.assertNull(file.getLastModified());
+            Assert.assertEquals("no temporary file left behind", 1, directory.toFile().list().length);
+        } finally {
+            for (File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testReadMissingOrCorruptFile() throws Exception {
+        Path path = Files.createTempFile("apple-keys", ".json");
+        try {
+            Assert.assertNull(ApplePublicKeysSnapshotFile.read(path.resolveSibling(path.getFileName() + ".missing")));
+
+            Files.write(path, "{\"fetchTime\":1000,\"keys\":".getBytes(Charset.forName("UTF-8")));
+            Assert.assertNull(ApplePublicKeysSnapshotFile.read(path));
+
+            Files.write(path, "{\"fetchTime\":\"soon\",\"expirationTime\":2000,\"keys\":\"{}\"}".getBytes(Charset.forName("UTF-8")));
+            Assert.assertNull(ApplePublicKeysSnapshotFile.read(path));
+
+            Files.write(path, "{\"expirationTime\":2000,\"keys\":\"{}\"}".getBytes(Charset.forName("UTF-8")));
+            Assert.assertNull(ApplePublicKeysSnapshotFile.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testManagerIgnoresTooStaleFile() throws Exception {
+        Path path = Files.createTempFile("apple-keys", ".json");
+        try {
+            new ApplePublicKeysSnapshotFile(RAW_KEYS, 1000, 2000, null, null).write(path);
+
+            Assert.assertFalse(ApplePublicKeysManager.getApplePublicKeysManager().loadKeysSnapshotFile(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
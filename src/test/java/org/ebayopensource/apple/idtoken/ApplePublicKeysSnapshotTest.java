@@ -0,0 +1,86 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class ApplePublicKeysSnapshotTest {
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        PublicKey publicKey = TestUtils.generateRSAKeyPair().getPublic();
+        List<PublicKey> publicKeys = new ArrayList<PublicKey>(Collections.singletonList(publicKey));
+        Map<String, RS256SignatureVerifier> verifiersByKid = new HashMap<String, RS256SignatureVerifier>();
+        verifiersByKid.put("kid1", new RS256SignatureVerifier("kid1", publicKey));
+
+        ApplePublicKeysSnapshot snapshot = new ApplePublicKeysSnapshot(publicKeys, verifiersByKid, 1000, 2000);
+
+        try {
+            snapshot.getPublicKeys().clear();
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            snapshot.getSignatureVerifiersByKid().clear();
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertSame(publicKey, snapshot.getSignatureVerifier("kid1").getPublicKey());
+        Assert.assertNull(snapshot.getSignatureVerifier("kid2"));
+        Assert.assertNull(snapshot.getSignatureVerifier(null));
+    }
+
+    @Test
+    public void testSnapshotExpiry() {
+        ApplePublicKeysSnapshot snapshot = new ApplePublicKeysSnapshot(new ArrayList<PublicKey>(),
+                new HashMap<String, RS256SignatureVerifier>(), 1000, 2000);
+
+        Assert.assertEquals(1000, snapshot.getFetchTimeInMillis());
+        Assert.assertEquals(2000, snapshot.getExpirationTimeInMillis());
+        Assert.assertFalse(snapshot.isExpired(2000));
+        Assert.assertTrue(snapshot.isExpired(2001));
+    }
+
+    @Test
+    public void testWithExpirationKeepsKeysAndValidators() {
+        Map<String, RS256SignatureVerifier> verifiersByKid = new HashMap<String, RS256SignatureVerifier>();
+        verifiersByKid.put("kid1", new RS256SignatureVerifier("kid1", TestUtils.generateRSAKeyPair().getPublic()));
+        ApplePublicKeysSnapshot snapshot = new ApplePublicKeysSnapshot(new ArrayList<PublicKey>(), verifiersByKid,
+                1000, 2000, "\"etag\"", "Mon, 08 Jun 2020 17:00:00 GMT");
+
+        ApplePublicKeysSnapshot revalidated = snapshot.withExpiration(3000, 4000);
+
+        Assert.assertSame(snapshot.getSignatureVerifier("kid1"), revalidated.getSignatureVerifier("kid1"));
+        Assert.assertEquals("\"etag\"", revalidated.getETag());
+        Assert.assertEquals("Mon, 08 Jun 2020 17:00:00 GMT", revalidated.getLastModified());
+        Assert.assertEquals(3000, revalidated.getFetchTimeInMillis());
+        Assert.assertEquals(4000, revalidated.getExpirationTimeInMillis());
+        Assert.assertEquals(2000, snapshot.getExpirationTimeInMillis());
+    }
+}
@@ -0,0 +1,87 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class AppleTokenPolicyTest {
+
+    @Test
+    public void testDefaultPolicy() {
+        AppleTokenPolicy policy = AppleTokenPolicy.DEFAULT;
+
+        Assert.assertEquals("https://appleid.apple.com", policy.getIssuer());
+        Assert.assertNull(policy.getAudiences());
+        Assert.assertEquals(Collections.singleton("RS256"), policy.getAllowedAlgorithms());
+        Assert.assertEquals(0, policy.getClockSkewMilliseconds());
+        Assert.assertTrue(policy.isAudienceAllowed(Collections.singletonList("any.client.id")));
+    }
+
+    @Test
+    public void testAudiences() {
+        AppleTokenPolicy policy = AppleTokenPolicy.builder()
+                .setAudiences(Arrays.asList("com.xyzCompany.app", "com.xyzCompany.webapp"))
+                .build();
+
+        Assert.assertTrue(policy.isAudienceAllowed(Collections.singletonList("com.xyzCompany.app")));
+        Assert.assertTrue(policy.isAudienceAllowed(Collections.singletonList("com.xyzCompany.webapp")));
+        Assert.assertFalse(policy.isAudienceAllowed(Collections.singletonList("com.abcCompany.webapp")));
+        Assert.assertFalse(policy.isAudienceAllowed(Collections.<String>emptyList()));
+        Assert.assertTrue(policy.isAudienceAllowed(Arrays.asList("com.abcCompany.webapp", "com.xyzCompany.webapp")));
+        Assert.assertFalse(policy.isAudienceAllowed(Arrays.asList("com.abcCompany.webapp", "com.abcCompany.app")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAudiencesAreImmutable() {
+        AppleTokenPolicy.builder().setAudiences(Arrays.asList("com.xyzCompany.app")).build()
+                .getAudiences().add("com.abcCompany.webapp");
+    }
+
+    @Test
+    public void testAlgorithms() {
+        AppleTokenPolicy policy = AppleTokenPolicy.DEFAULT;
+
+        Assert.assertTrue(policy.isAlgorithmAllowed("RS256"));
+        Assert.assertFalse(policy.isAlgorithmAllowed("none"));
+        Assert.assertFalse(policy.isAlgorithmAllowed("HS256"));
+        Assert.assertFalse(policy.isAlgorithmAllowed(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithmRejected() {
+        AppleTokenPolicy.builder().setAllowedAlgorithms(Arrays.asList("RS256", "HS256"));
+    }
+
+    @Test
+    public void testClockSkew() {
+        AppleTokenPolicy policy = AppleTokenPolicy.builder().setClockSkewMilliseconds(30000).build();
+
+        Assert.assertFalse(policy.isExpired(100000, 130000));
+        Assert.assertTrue(policy.isExpired(100000, 130001));
+        Assert.assertTrue(AppleTokenPolicy.DEFAULT.isExpired(100000, 100001));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeClockSkewRejected() {
+        AppleTokenPolicy.builder().setClockSkewMilliseconds(-1);
+    }
+}
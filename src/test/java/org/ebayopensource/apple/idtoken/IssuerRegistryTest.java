@@ -0,0 +1,122 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.keysource.InMemoryKeySource;
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.KeyPair;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class IssuerRegistryTest {
+
+    @Test
+    public void testDefaultRegistryTrustsApple() {
+        TrustedIssuer apple = IssuerRegistry.DEFAULT.getIssuer(AppleTokenPolicy.APPLE_ISSUER);
+
+        Assert.assertSame(ApplePublicKeysManager.getApplePublicKeysManager(), apple.getKeysManager());
+        Assert.assertSame(AppleTokenPolicy.DEFAULT, apple.getTokenPolicy());
+        Assert.assertSame(apple, IssuerRegistry.DEFAULT.getDefaultIssuer());
+        Assert.assertNull(IssuerRegistry.DEFAULT.getIssuer("https://accounts.google.com"));
+        Assert.assertNull(IssuerRegistry.DEFAULT.getIssuer("https://appleid.apple.com.evil.com"));
+        Assert.assertNull(IssuerRegistry.DEFAULT.getIssuer("x-https://appleid.apple.com"));
+        Assert.assertNull(IssuerRegistry.DEFAULT.getIssuer(null));
+    }
+
+    @Test
+    public void testIssuersHaveIndependentKeyManagers() {
+        AppleTokenPolicy googlePolicy = AppleTokenPolicy.builder().setIssuer("https://accounts.google.com").build();
+        TrustedIssuer google = TrustedIssuer.forJwksUri(googlePolicy, "https://www.googleapis.com/oauth2/v3/certs");
+        IssuerRegistry registry = IssuerRegistry.builder().addApple().addIssuer(google).build();
+
+        Assert.assertSame(google, registry.getIssuer("https://accounts.google.com"));
+        Assert.assertNotSame(ApplePublicKeysManager.getApplePublicKeysManager(), google.getKeysManager());
+        Assert.assertEquals(AppleTokenPolicy.APPLE_ISSUER, registry.getDefaultIssuer().getIssuer());
+        Assert.assertEquals(2, registry.getIssuers().size());
+    }
+
+    @Test
+    public void testAliasSharesIssuerKeys() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        AppleTokenPolicy googlePolicy = AppleTokenPolicy.builder().setIssuer("https://accounts.google.com").build();
+        ApplePublicKeysManager keysManager = ApplePublicKeysManager.builder()
+                .setKeySource(new InMemoryKeySource(TestUtils.createJWKSet(keyPair.getPublic(), "gkid1")))
+                .build();
+        IssuerRegistry registry = IssuerRegistry.builder()
+                .addApple()
+                .addIssuer(googlePolicy, keysManager)
+                .addAlias("https://accounts.google.com", "accounts.google.com")
+                .build();
+
+        TrustedIssuer google = registry.getIssuer("https://accounts.google.com");
+        Assert.assertSame(google, registry.getIssuer("accounts.google.com"));
+        Assert.assertSame(keysManager, google.getKeysManager());
+        Assert.assertEquals(2, registry.getIssuers().size());
+
+        AppleIDTokenValidator validator = new AppleIDTokenValidator(registry);
+        long exp = System.currentTimeMillis() + 300000;
+        Assert.assertTrue(validator.validate(TestUtils.createSignedJWT(keyPair.getPrivate(), "gkid1",
+                "https://accounts.google.com", null, null, exp), null).isValid());
+        Assert.assertTrue(validator.validate(TestUtils.createSignedJWT(keyPair.getPrivate(), "gkid1",
+                "accounts.google.com", null, null, exp), null).isValid());
+        Assert.assertEquals(1, keysManager.getMetrics().getRefreshCount());
+    }
+
+    @Test
+    public void testTemplateMatchesOnePathSegment() {
+        AppleTokenPolicy microsoftPolicy = AppleTokenPolicy.builder()
+                .setIssuer("https://login.microsoftonline.com/{tenantid}/v2.0").build();
+        IssuerRegistry registry = IssuerRegistry.builder()
+                .addApple()
+                .addIssuer(microsoftPolicy,
+                        ApplePublicKeysManager.builder().setKeySource(new InMemoryKeySource("{\"keys\":[]}")).build())
+                .build();
+
+        TrustedIssuer microsoft = registry.getIssuer("https://login.microsoftonline.com/9188040d-6c67-4c5b-b112-36a304b66dad/v2.0");
+        Assert.assertNotNull(microsoft);
+        Assert.assertSame(microsoftPolicy, microsoft.getTokenPolicy());
+        Assert.assertNull(registry.getIssuer("https://login.microsoftonline.com/a/b/v2.0"));
+        Assert.assertNull(registry.getIssuer("https://login.microsoftonline.com//v2.0"));
+        Assert.assertNull(registry.getIssuer("https://login.microsoftonline.com/tenant/v2.0/extra"));
+        Assert.assertNull(registry.getIssuer("https://login.microsoftonlineXcom/tenant/v2.0"));
+        Assert.assertEquals(AppleTokenPolicy.APPLE_ISSUER, registry.getIssuer(AppleTokenPolicy.APPLE_ISSUER).getIssuer());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAliasOfUnknownIssuerRejected() {
+        IssuerRegistry.builder().addApple().addAlias("https://accounts.google.com", "accounts.google.com");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAliasOfRegisteredIssuerRejected() {
+        IssuerRegistry.builder().addApple().addAlias(AppleTokenPolicy.APPLE_ISSUER, AppleTokenPolicy.APPLE_ISSUER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateIssuerRejected() {
+        IssuerRegistry.builder().addApple()
+                .addIssuer(AppleTokenPolicy.DEFAULT,
+                        ApplePublicKeysManager.builder().setKeySource(new InMemoryKeySource("{\"keys\":[]}")).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRegistryRejected() {
+        IssuerRegistry.builder().build();
+    }
+}
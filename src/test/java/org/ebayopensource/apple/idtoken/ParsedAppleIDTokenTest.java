@@ -0,0 +1,79 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.Signature;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class ParsedAppleIDTokenTest {
+
+    @Test
+    public void testParseValidIDToken() throws Exception {
+        long expTime = System.currentTimeMillis()+300000;
+        String idToken = TestUtils.createValidJWTWithFakeSignature(null, null, null, expTime);
+
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(idToken);
+        Assert.assertNotNull(parsedIDToken);
+        Assert.assertSame(idToken, parsedIDToken.getIdToken());
+        Assert.assertArrayEquals(idToken.substring(0, idToken.lastIndexOf('.')).getBytes("US-ASCII"),
+                parsedIDToken.getSigningInput());
+        Assert.assertEquals(TestUtils.getDefaultIssuer(), parsedIDToken.getUserInfo().getIssuer());
+        Assert.assertEquals(TestUtils.getDefaultNonce(), parsedIDToken.getUserInfo().getNonce());
+        Assert.assertEquals(expTime * 1000L, parsedIDToken.getExpiryTimeInMillis());
+        Assert.assertNotNull(parsedIDToken.getHeader());
+        Assert.assertTrue(parsedIDToken.getSignature().length > 0);
+    }
+
+    @Test
+    public void testParseMalformedIDTokens() throws Exception {
+        Assert.assertNull(ParsedAppleIDToken.decode(null));
+        Assert.assertNull(ParsedAppleIDToken.decode("\n"));
+        Assert.assertNull(ParsedAppleIDToken.decode("abcd.abcd"));
+        Assert.assertNull(ParsedAppleIDToken.decode("a.a."));
+        Assert.assertNull(ParsedAppleIDToken.decode("abcd. .adefg"));
+        Assert.assertNull(ParsedAppleIDToken.decode("abcd.abcd.abcd.abcd"));
+        Assert.assertNull(ParsedAppleIDToken.decode(".abcd.abcd"));
+        Assert.assertNull(ParsedAppleIDToken.decode("abcd.ab\u0165d.abcd"));
+    }
+
+    @Test
+    public void testDecodeInvalidJSONPayload() {
+        Assert.assertSame(ParsedAppleIDToken.UNDECODABLE,
+                ParsedAppleIDToken.decode("eyJhbGciOiJub25lIn0.bm90LWpzb24.thisisafakesignature"));
+        Assert.assertNull(ParsedAppleIDToken.decode("abcd.abcd.abcd.abcd"));
+    }
+
+    @Test
+    public void testSigningInputAndSignatureVerify() throws Exception {
+        KeyPair keyPair = TestUtils.generateRSAKeyPair();
+        String idToken = TestUtils.createSignedJWT(keyPair.getPrivate(), "testKid", null, null, System.currentTimeMillis()+300000);
+
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(idToken);
+        Assert.assertEquals("testKid", parsedIDToken.getHeader().getKeyId());
+        Assert.assertEquals("RS256", parsedIDToken.getHeader().getAlgorithm());
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initVerify(keyPair.getPublic());
+        signature.update(parsedIDToken.getSigningInput());
+        Assert.assertTrue(signature.verify(parsedIDToken.getSignature()));
+    }
+}
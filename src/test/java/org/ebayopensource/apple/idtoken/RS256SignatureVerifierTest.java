@@ -0,0 +1,59 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.KeyPair;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class RS256SignatureVerifierTest {
+
+    private final KeyPair keyPair = TestUtils.generateRSAKeyPair();
+    private final RS256SignatureVerifier signatureVerifier = new RS256SignatureVerifier("testKid", keyPair.getPublic());
+
+    @Test
+    public void testVerifyValidSignatureRepeatedly() throws Exception {
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(
+                TestUtils.createSignedJWT(keyPair.getPrivate(), "testKid", null, null, System.currentTimeMillis()+300000));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(signatureVerifier.verify(parsedIDToken.getSigningInput(), parsedIDToken.getSignature()));
+        }
+        Assert.assertEquals("testKid", signatureVerifier.getKid());
+        Assert.assertSame(keyPair.getPublic(), signatureVerifier.getPublicKey());
+    }
+
+    @Test
+    public void testVerifyWrongKeySignature() throws Exception {
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(
+                TestUtils.createValidJWTWithWrongSignature(null, null, null, System.currentTimeMillis()+300000));
+
+        Assert.assertFalse(signatureVerifier.verify(parsedIDToken.getSigningInput(), parsedIDToken.getSignature()));
+    }
+
+    @Test
+    public void testVerifyMalformedSignatureThenValidSignature() throws Exception {
+        ParsedAppleIDToken parsedIDToken = ParsedAppleIDToken.decode(
+                TestUtils.createSignedJWT(keyPair.getPrivate(), "testKid", null, null, System.currentTimeMillis()+300000));
+
+        Assert.assertFalse(signatureVerifier.verify(parsedIDToken.getSigningInput(), new byte[] {1, 2, 3}));
+        Assert.assertTrue(signatureVerifier.verify(parsedIDToken.getSigningInput(), parsedIDToken.getSignature()));
+    }
+}
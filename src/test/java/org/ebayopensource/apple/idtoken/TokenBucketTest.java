@@ -0,0 +1,53 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenRefill() {
+        TokenBucket tokenBucket = new TokenBucket(3, 1000, 0);
+
+        Assert.assertTrue(tokenBucket.tryAcquire(0));
+        Assert.assertTrue(tokenBucket.tryAcquire(0));
+        Assert.assertTrue(tokenBucket.tryAcquire(0));
+        Assert.assertFalse(tokenBucket.tryAcquire(999));
+
+        Assert.assertTrue(tokenBucket.tryAcquire(1000));
+        Assert.assertFalse(tokenBucket.tryAcquire(1500));
+        Assert.assertTrue(tokenBucket.tryAcquire(2000));
+    }
+
+    @Test
+    public void testRefillCappedAtCapacity() {
+        TokenBucket tokenBucket = new TokenBucket(2, 1000, 0);
+
+        Assert.assertTrue(tokenBucket.tryAcquire(0));
+        Assert.assertTrue(tokenBucket.tryAcquire(60000));
+        Assert.assertTrue(tokenBucket.tryAcquire(60000));
+        Assert.assertFalse(tokenBucket.tryAcquire(60000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new TokenBucket(0, 1000, 0);
+    }
+}
@@ -0,0 +1,72 @@
+package org.ebayopensource.apple.idtoken;
+
+import org.ebayopensource.apple.idtoken.keysource.DiscoveryKeySource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class TrustedIssuerTest {
+
+    private static final String ISSUER = "https://accounts.example.com";
+
+    @Test
+    public void testAlgorithmMustBeAllowedByPolicyAndDiscovery() {
+        AppleTokenPolicy policy = AppleTokenPolicy.builder().setIssuer(ISSUER).build();
+        TrustedIssuer rsaIssuer = new TrustedIssuer(policy, ApplePublicKeysManager.builder()
+                .setKeySource(discovering(Arrays.asList("RS256", "PS256")))
+                .build());
+        TrustedIssuer ecIssuer = new TrustedIssuer(policy, ApplePublicKeysManager.builder()
+                .setKeySource(discovering(Collections.singletonList("ES256")))
+                .build());
+
+        Assert.assertTrue(rsaIssuer.isAlgorithmAllowed("RS256"));
+        Assert.assertFalse("not allowed by the policy", rsaIssuer.isAlgorithmAllowed("PS256"));
+        Assert.assertFalse("not discovered", ecIssuer.isAlgorithmAllowed("RS256"));
+        Assert.assertFalse(rsaIssuer.isAlgorithmAllowed(null));
+    }
+
+    @Test
+    public void testPolicyAlonePermitsAlgorithmsUntilDiscovered() {
+        AppleTokenPolicy policy = AppleTokenPolicy.builder().setIssuer(ISSUER).build();
+
+        TrustedIssuer undiscovered = new TrustedIssuer(policy, ApplePublicKeysManager.builder()
+                .setKeySource(discovering(null))
+                .build());
+        TrustedIssuer emptyList = new TrustedIssuer(policy, ApplePublicKeysManager.builder()
+                .setKeySource(discovering(Collections.<String>emptyList()))
+                .build());
+
+        Assert.assertTrue(undiscovered.isAlgorithmAllowed("RS256"));
+        Assert.assertTrue(emptyList.isAlgorithmAllowed("RS256"));
+        Assert.assertFalse(undiscovered.isAlgorithmAllowed("none"));
+    }
+
+    private static DiscoveryKeySource discovering(final List<String> algorithms) {
+        return new DiscoveryKeySource(ISSUER) {
+            @Override
+            public List<String> getIdTokenSigningAlgorithms() {
+                return algorithms;
+            }
+        };
+    }
+}
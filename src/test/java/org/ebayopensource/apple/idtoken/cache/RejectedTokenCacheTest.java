@@ -0,0 +1,67 @@
+package org.ebayopensource.apple.idtoken.cache;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+import org.junit.Assert;
+import org.junit.Test;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class RejectedTokenCacheTest {
+
+    @Test
+    public void testRejectionIsCached() {
+        RejectedTokenCache cache = new RejectedTokenCache(10, 60000);
+
+        Assert.assertNull(cache.getRejection("a.b.c"));
+        cache.reject("a.b.c", IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE, cache.getRejection("a.b.c"));
+        Assert.assertEquals(IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE, cache.getRejection("a.b.c"));
+        Assert.assertNull(cache.getRejection("a.b.d"));
+        Assert.assertEquals(2, cache.getRejectionCount());
+    }
+
+    @Test
+    public void testRejectionExpires() throws InterruptedException {
+        RejectedTokenCache cache = new RejectedTokenCache(10, 1);
+
+        cache.reject("a.b.c", IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+        Thread.sleep(5);
+
+        Assert.assertNull(cache.getRejection("a.b.c"));
+        Assert.assertEquals(0, cache.getRejectionCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        RejectedTokenCache cache = new RejectedTokenCache(10, 60000);
+
+        for (int i = 0; i < 100; i++) {
+            cache.reject("a.b.c" + i, IDTokenErrorEnum.INVALID_ID_TOKEN_SIGNATURE);
+        }
+        Assert.assertTrue(cache.size() <= 10);
+
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new RejectedTokenCache(0, 60000);
+    }
+}
@@ -0,0 +1,178 @@
+package org.ebayopensource.apple.idtoken.cache;
+
+import org.ebayopensource.apple.idtoken.util.IDTokenErrorEnum;
+import org.ebayopensource.apple.idtoken.util.IDTokenException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class VerifiedTokenCacheTest {
+
+    private static final long FUTURE_EXPIRY = Long.MAX_VALUE;
+
+    @Test
+    public void testPositiveResultIsCached() throws IDTokenException {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        CountingVerification verification = new CountingVerification(true);
+
+        Assert.assertTrue(cache.verify("a.b.c", FUTURE_EXPIRY, verification));
+        Assert.assertTrue(cache.verify("a.b.c", FUTURE_EXPIRY, verification));
+
+        Assert.assertEquals(1, verification.count.get());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testIsVerified() throws IDTokenException {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+
+        Assert.assertFalse(cache.isVerified("a.b.c"));
+        cache.verify("a.b.c", FUTURE_EXPIRY, new CountingVerification(true));
+        Assert.assertTrue(cache.isVerified("a.b.c"));
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testNegativeResultIsNotCached() throws IDTokenException {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        CountingVerification verification = new CountingVerification(false);
+
+        Assert.assertFalse(cache.verify("a.b.c", FUTURE_EXPIRY, verification));
+        Assert.assertFalse(cache.verify("a.b.c", FUTURE_EXPIRY, verification));
+
+        Assert.assertEquals(2, verification.count.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntryNeverOutlivesTokenExpiry() throws IDTokenException {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        CountingVerification verification = new CountingVerification(true);
+
+        Assert.assertTrue(cache.verify("a.b.c", System.currentTimeMillis() - 1, verification));
+        Assert.assertTrue(cache.verify("a.b.c", System.currentTimeMillis() - 1, verification));
+
+        Assert.assertEquals(2, verification.count.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws IDTokenException {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        CountingVerification verification = new CountingVerification(true);
+
+        for (int i = 0; i < 100; i++) {
+            cache.verify("a.b.c" + i, FUTURE_EXPIRY, verification);
+        }
+        Assert.assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void testExceptionIsPropagated() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        try {
+            cache.verify("a.b.c", FUTURE_EXPIRY, new VerifiedTokenCache.Verification() {
+                @Override
+                public boolean verify() throws IDTokenException {
+                    throw new IDTokenException(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE);
+                }
+            });
+            Assert.fail("Expected IDTokenException but no exception encountered.");
+        } catch (IDTokenException e) {
+            Assert.assertEquals(IDTokenErrorEnum.APPLE_PUBLIC_KEY_UNAVAILABLE, e.getErrorEnum());
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentVerificationsAreCoalesced() throws Exception {
+        final VerifiedTokenCache cache = new VerifiedTokenCache(10, 60000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final VerifiedTokenCache.Verification slowVerification = new VerifiedTokenCache.Verification() {
+            @Override
+            public boolean verify() throws IDTokenException {
+                count.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.verify("a.b.c", FUTURE_EXPIRY, slowVerification);
+                } catch (IDTokenException e) {
+                    Assert.fail();
+                }
+            }
+        });
+        first.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Assert.assertTrue(cache.verify("a.b.c", FUTURE_EXPIRY, slowVerification));
+                } catch (IDTokenException e) {
+                    Assert.fail();
+                }
+            }
+        });
+        second.start();
+        while (cache.getCoalescedCount() == 0 && second.isAlive()) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        Assert.assertEquals(1, count.get());
+        Assert.assertEquals(1, cache.getCoalescedCount());
+    }
+
+    private static class CountingVerification implements VerifiedTokenCache.Verification {
+        private final AtomicInteger count = new AtomicInteger();
+        private final boolean result;
+
+        CountingVerification(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean verify() {
+            count.incrementAndGet();
+            return result;
+        }
+    }
+}
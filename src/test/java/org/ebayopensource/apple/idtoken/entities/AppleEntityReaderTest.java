@@ -0,0 +1,114 @@
+package org.ebayopensource.apple.idtoken.entities;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class AppleEntityReaderTest {
+
+    @Test
+    public void testReadAppleUserInfo() throws Exception {
+        AppleUserInfo userInfo = AppleUserInfo.read(reader("{\"iss\":\"https://appleid.apple.com\",\"aud\":\"com.test\"," +
+                "\"exp\":1591635720,\"iat\":1591635120,\"sub\":\"000.abc\",\"nonce\":\"n\",\"email\":\"a@b.com\"," +
+                "\"email_verified\":\"true\",\"c_hash\":\"x\",\"extra\":{\"nested\":[1,2,{\"k\":null}]},\"auth_time\":1}"));
+
+        Assert.assertEquals("https://appleid.apple.com", userInfo.getIssuer());
+        Assert.assertEquals("com.test", userInfo.getClientId());
+        Assert.assertEquals(Collections.singletonList("com.test"), userInfo.getAudiences());
+        Assert.assertEquals("1591635720", userInfo.getExpiryTime());
+        Assert.assertEquals("1591635120", userInfo.getIssuingTime());
+        Assert.assertEquals("000.abc", userInfo.getUniqueIdentifier());
+        Assert.assertEquals("n", userInfo.getNonce());
+        Assert.assertEquals("a@b.com", userInfo.getEmail());
+        Assert.assertTrue(userInfo.isEmailVerified());
+    }
+
+    @Test
+    public void testReadAppleUserInfoNullsAndBooleans() throws Exception {
+        AppleUserInfo userInfo = AppleUserInfo.read(reader("{\"nonce\":null,\"email_verified\":true}"));
+
+        Assert.assertNull(userInfo.getNonce());
+        Assert.assertTrue(userInfo.isEmailVerified());
+        Assert.assertNull(AppleUserInfo.read(reader("null")));
+    }
+
+    @Test
+    public void testReadAppleUserInfoAudienceArray() throws Exception {
+        AppleUserInfo userInfo = AppleUserInfo.read(reader("{\"aud\":[\"com.test\",\"com.other\"],\"sub\":\"000.abc\"}"));
+
+        Assert.assertEquals("com.test", userInfo.getClientId());
+        Assert.assertEquals(Arrays.asList("com.test", "com.other"), userInfo.getAudiences());
+        Assert.assertEquals("000.abc", userInfo.getUniqueIdentifier());
+        Assert.assertTrue(AppleUserInfo.read(reader("{\"aud\":null}")).getAudiences().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadAppleUserInfoMalformed() throws Exception {
+        AppleUserInfo.read(reader("{\"iss\":\"https://appleid.apple.com\""));
+    }
+
+    @Test
+    public void testReadOpenIDConfiguration() throws Exception {
+        OpenIDConfiguration configuration = OpenIDConfiguration.read(reader("{\"issuer\":\"https://appleid.apple.com\","
+                + "\"authorization_endpoint\":\"https://appleid.apple.com/auth/authorize\","
+                + "\"jwks_uri\":\"https://appleid.apple.com/auth/keys\",\"scopes_supported\":[\"openid\",\"email\"],"
+                + "\"id_token_signing_alg_values_supported\":[\"RS256\"]}"));
+
+        Assert.assertEquals("https://appleid.apple.com", configuration.getIssuer());
+        Assert.assertEquals("https://appleid.apple.com/auth/keys", configuration.getJwksUri());
+        Assert.assertEquals(Collections.singletonList("RS256"), configuration.getIdTokenSigningAlgorithms());
+        Assert.assertNull(OpenIDConfiguration.read(reader("{\"id_token_signing_alg_values_supported\":null}"))
+                .getIdTokenSigningAlgorithms());
+    }
+
+    @Test
+    public void testReadAppleIDTokenHeader() throws Exception {
+        AppleIDTokenHeader header = AppleIDTokenHeader.read(reader("{\"kid\":\"86D88Kf\",\"alg\":\"RS256\",\"typ\":\"JWT\"}"));
+
+        Assert.assertEquals("86D88Kf", header.getKeyId());
+        Assert.assertEquals("RS256", header.getAlgorithm());
+    }
+
+    @Test
+    public void testReadAppleJWKSet() throws Exception {
+        AppleJWKSet jwkSet = AppleJWKSet.read(reader("{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"86D88Kf\",\"use\":\"sig\"," +
+                "\"alg\":\"RS256\",\"n\":\"iGaLqP6y\",\"e\":\"AQAB\",\"x5c\":[\"abc\"]},{\"kid\":\"eXaunmL\"}],\"other\":1}"));
+
+        Assert.assertEquals(2, jwkSet.getKeys().size());
+        ApplePublicKey key = jwkSet.getKeys().get(0);
+        Assert.assertEquals("RSA", key.getKty());
+        Assert.assertEquals("86D88Kf", key.getKid());
+        Assert.assertEquals("sig", key.getUse());
+        Assert.assertEquals("RS256", key.getAlg());
+        Assert.assertEquals("iGaLqP6y", key.getModulus());
+        Assert.assertEquals("AQAB", key.getExponent());
+        Assert.assertEquals("eXaunmL", jwkSet.getKeys().get(1).getKid());
+        Assert.assertNull(AppleJWKSet.read(reader("{}")).getKeys());
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+}
@@ -4,10 +4,22 @@ import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import org.ebayopensource.apple.idtoken.entities.AppleJWKSet;
 import org.ebayopensource.apple.idtoken.entities.ApplePublicKey;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /************************************************************************
  Copyright 2020 eBay Inc.
@@ -28,6 +40,170 @@ import java.util.List;
 
 public class AppleHttpClientTest {
 
+    private static final String KEYS = "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"kid1\",\"use\":\"sig\",\"alg\":\"RS256\","
+            + "\"n\":\"AQAB\",\"e\":\"AQAB\"}]}";
+
+    private HttpServer server;
+    private AppleHttpClient client;
+
+    /** Remote ports of the requests served, to tell whether connections were reused. */
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    /** Request lines served, as the request URI seen by the server. */
+    private final List<String> requestUris = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/auth/keys", exchange -> {
+            record(exchange);
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.getResponseHeaders().add("Cache-Control", "max-age=600");
+            send(exchange, KEYS);
+        });
+        server.createContext("/large", exchange -> {
+            record(exchange);
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                body.append(KEYS);
+            }
+            send(exchange, body.toString());
+        });
+        server.createContext("/slow", exchange -> {
+            record(exchange);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 50; i++) {
+                    out.write(' ');
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException | IOException e) {
+                // client went away
+            }
+        });
+        server.createContext("/slowError", exchange -> {
+            record(exchange);
+            exchange.sendResponseHeaders(500, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 50; i++) {
+                    out.write(' ');
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException | IOException e) {
+                // client went away
+            }
+        });
+        server.start();
+        client = new AppleHttpClient(url("/auth/keys"));
+    }
+
+    @After
+    public void stopServer() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalFetchReusesConnection() throws Exception {
+        AppleKeysResponse response = client.fetchApplePublicKeys(null, null);
+
+        Assert.assertFalse(response.isNotModified());
+        Assert.assertEquals(KEYS, response.getBody());
+        Assert.assertEquals("\"v1\"", response.getETag());
+        Assert.assertEquals(600000, response.getTimeToLiveMilliseconds());
+
+        Assert.assertEquals(KEYS, client.fetchApplePublicKeyResponse());
+        Assert.assertEquals("connection kept alive", 1, clientPorts.size());
+
+        AppleKeysResponse revalidated = client.fetchApplePublicKeys("\"v1\"", null);
+        Assert.assertTrue(revalidated.isNotModified());
+        Assert.assertNull(revalidated.getBody());
+    }
+
+    @Test
+    public void testResponseBodyBounded() throws Exception {
+        AppleHttpClient largeClient = new AppleHttpClient(url("/large")).setMaxResponseBytes(4096);
+        try {
+            largeClient.fetchApplePublicKeys(null, null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("4096"));
+        } finally {
+            largeClient.shutdown();
+        }
+    }
+
+    @Test
+    public void testTotalTimeoutBoundsSlowResponse() throws Exception {
+        AppleHttpClient slowClient = new AppleHttpClient(url("/slow"))
+                .setReadTimeoutMilliseconds(1000).setTotalTimeoutMilliseconds(300);
+        long start = System.currentTimeMillis();
+        try {
+            slowClient.fetchApplePublicKeys(null, null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+        } finally {
+            slowClient.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrorBodyNotDrained() throws Exception {
+        AppleHttpClient errorClient = new AppleHttpClient(url("/slowError"))
+                .setReadTimeoutMilliseconds(1000).setTotalTimeoutMilliseconds(300);
+        long start = System.currentTimeMillis();
+        try {
+            Assert.assertNull(errorClient.fetchApplePublicKeys(null, null));
+            Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+        } finally {
+            errorClient.shutdown();
+        }
+    }
+
+    @Test
+    public void testPerInstanceProxy() throws Exception {
+        AppleHttpClient proxiedClient = new AppleHttpClient("http://keys.example.invalid/auth/keys")
+                .setProxy("127.0.0.1", server.getAddress().getPort());
+        try {
+            Assert.assertEquals(KEYS, proxiedClient.fetchApplePublicKeyResponse());
+            Assert.assertEquals("http://keys.example.invalid/auth/keys", requestUris.get(0));
+        } finally {
+            proxiedClient.shutdown();
+        }
+        Assert.assertNull(client.getProxyHost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTimeoutRejected() {
+        client.setConnectTimeoutMilliseconds(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void record(HttpExchange exchange) {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        requestUris.add(exchange.getRequestURI().toString());
+    }
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
     @Test
     public void testFetchApplePublicKeyResponse() {
         try {
@@ -0,0 +1,55 @@
+package org.ebayopensource.apple.idtoken.httpclient;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class AppleKeysResponseTest {
+
+    private static final long NOW = 1591635120000L;
+
+    @Test
+    public void testTimeToLiveFromMaxAge() {
+        Assert.assertEquals(3600000, AppleKeysResponse.parseTimeToLive("public, max-age=3600", null, null, null, NOW));
+        Assert.assertEquals(3000000, AppleKeysResponse.parseTimeToLive("max-age=3600", null, null, "600", NOW));
+        Assert.assertEquals(0, AppleKeysResponse.parseTimeToLive("max-age=60", null, null, "600", NOW));
+    }
+
+    @Test
+    public void testMaxAgeTakesPrecedenceOverExpires() {
+        Assert.assertEquals(60000, AppleKeysResponse.parseTimeToLive("max-age=60",
+                "Mon, 08 Jun 2020 18:00:00 GMT", "Mon, 08 Jun 2020 17:00:00 GMT", null, NOW));
+    }
+
+    @Test
+    public void testTimeToLiveFromExpires() {
+        Assert.assertEquals(3600000, AppleKeysResponse.parseTimeToLive(null,
+                "Mon, 08 Jun 2020 18:00:00 GMT", "Mon, 08 Jun 2020 17:00:00 GMT", null, NOW));
+        Assert.assertEquals(0, AppleKeysResponse.parseTimeToLive(null, "0", null, null, NOW));
+    }
+
+    @Test
+    public void testNoCacheAndMissingHeaders() {
+        Assert.assertEquals(0, AppleKeysResponse.parseTimeToLive("no-cache", null, null, null, NOW));
+        Assert.assertEquals(0, AppleKeysResponse.parseTimeToLive("max-age=3600, no-store", null, null, null, NOW));
+        Assert.assertEquals(-1, AppleKeysResponse.parseTimeToLive(null, null, null, null, NOW));
+        Assert.assertEquals(-1, AppleKeysResponse.parseTimeToLive("public", null, null, null, NOW));
+        Assert.assertEquals(-1, AppleKeysResponse.parseTimeToLive("max-age=abc", null, null, null, NOW));
+    }
+}
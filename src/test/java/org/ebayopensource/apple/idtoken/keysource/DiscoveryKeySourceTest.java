@@ -0,0 +1,227 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.ebayopensource.apple.idtoken.httpclient.AppleHttpClient;
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class DiscoveryKeySourceTest {
+
+    private static final String KEYS1 = TestUtils.createJWKSet(TestUtils.generateRSAKeyPair().getPublic(), "kid1");
+    private static final String KEYS2 = TestUtils.createJWKSet(TestUtils.generateRSAKeyPair().getPublic(), "kid2");
+
+    private HttpServer server;
+    private String issuer;
+    private volatile String discoveredIssuer;
+    private volatile String jwksPath = "/keys1";
+
+    /** jwks_uri advertised instead of the stub server's jwksPath, or null. */
+    private volatile String jwksUri;
+    private final AtomicInteger discoveryCount = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        issuer = "http://127.0.0.1:" + server.getAddress().getPort();
+        discoveredIssuer = issuer;
+        server.createContext(DiscoveryKeySource.WELL_KNOWN_PATH, exchange -> {
+            discoveryCount.incrementAndGet();
+            String advertisedJwksUri = jwksUri != null ? jwksUri : issuer + jwksPath;
+            send(exchange, "{\"issuer\":\"" + discoveredIssuer + "\",\"jwks_uri\":\"" + advertisedJwksUri + "\","
+                    + "\"id_token_signing_alg_values_supported\":[\"RS256\"]}");
+        });
+        server.createContext("/keys1", exchange -> send(exchange, KEYS1));
+        server.createContext("/keys2", exchange -> send(exchange, KEYS2));
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testKeysFetchedFromDiscoveredJwksUri() throws Exception {
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer);
+
+        Assert.assertNull(keySource.getJwksUri());
+        Assert.assertEquals(KEYS1, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals(KEYS1, keySource.fetchKeys(null, null).getBody());
+
+        Assert.assertEquals("discovery document cached", 1, discoveryCount.get());
+        Assert.assertEquals(issuer + "/keys1", keySource.getJwksUri());
+        Assert.assertEquals(Collections.singletonList("RS256"), keySource.getIdTokenSigningAlgorithms());
+    }
+
+    @Test
+    public void testExpiredDiscoveryRefreshedOnItsOwnSchedule() throws Exception {
+        final List<Runnable> refreshes = Collections.synchronizedList(new ArrayList<Runnable>());
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer).setTimeToLiveMilliseconds(200)
+                .setRefreshExecutor(refreshes::add);
+        Assert.assertEquals(KEYS1, keySource.fetchKeys(null, null).getBody());
+
+        jwksPath = "/keys2";
+        Thread.sleep(300);
+        Assert.assertEquals("refresh scheduled at expiry, without a key fetch", 1, refreshes.size());
+
+        Assert.assertEquals("expired document used while refreshed", KEYS1, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals(1, refreshes.size());
+        refreshes.remove(0).run();
+        Assert.assertEquals(2, discoveryCount.get());
+        Assert.assertEquals(KEYS2, keySource.fetchKeys("\"v1\"", null).getBody());
+
+        keySource.close();
+        Thread.sleep(300);
+        Assert.assertTrue("no refresh scheduled once closed", refreshes.isEmpty());
+    }
+
+    @Test
+    public void testInsecureJwksUriRejected() throws Exception {
+        jwksUri = "http://keys.example.com/keys";
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer);
+        try {
+            keySource.fetchKeys(null, null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("not https"));
+        }
+        keySource.close();
+
+        DiscoveryKeySource withFallback = new DiscoveryKeySource(issuer, null, issuer + "/keys2");
+        Assert.assertEquals(KEYS2, withFallback.fetchKeys(null, null).getBody());
+        Assert.assertNull(withFallback.getJwksUri());
+        Assert.assertEquals(1, withFallback.getConsecutiveFailures());
+        withFallback.close();
+    }
+
+    @Test
+    public void testSecureJwksUri() {
+        Assert.assertTrue(DiscoveryKeySource.isSecureJwksUri("https://appleid.apple.com/auth/keys"));
+        Assert.assertTrue(DiscoveryKeySource.isSecureJwksUri("HTTPS://www.googleapis.com/oauth2/v3/certs"));
+        Assert.assertTrue(DiscoveryKeySource.isSecureJwksUri("http://127.0.0.1:8080/keys"));
+        Assert.assertTrue(DiscoveryKeySource.isSecureJwksUri("http://localhost/keys"));
+        Assert.assertFalse(DiscoveryKeySource.isSecureJwksUri("http://appleid.apple.com/auth/keys"));
+        Assert.assertFalse(DiscoveryKeySource.isSecureJwksUri("http://127.0.0.1.attacker.example.com/keys"));
+        Assert.assertFalse(DiscoveryKeySource.isSecureJwksUri("file:///etc/keys"));
+        Assert.assertFalse(DiscoveryKeySource.isSecureJwksUri("/auth/keys"));
+        Assert.assertFalse(DiscoveryKeySource.isSecureJwksUri("https://"));
+    }
+
+    @Test
+    public void testDiscoveryOfAnotherIssuerRejected() throws Exception {
+        discoveredIssuer = "https://attacker.example.com";
+        try {
+            new DiscoveryKeySource(issuer).fetchKeys(null, null);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains(issuer));
+        }
+
+        DiscoveryKeySource withFallback = new DiscoveryKeySource(issuer,
+                new AppleHttpClient(issuer + DiscoveryKeySource.WELL_KNOWN_PATH), issuer + "/keys2");
+        Assert.assertEquals(KEYS2, withFallback.fetchKeys(null, null).getBody());
+        Assert.assertNull(withFallback.getJwksUri());
+    }
+
+    @Test
+    public void testFailedDiscoveryRetriedInBackgroundWithBackoff() throws Exception {
+        discoveredIssuer = "https://unavailable.example.com";
+        final List<Runnable> retries = new ArrayList<Runnable>();
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer, null, issuer + "/keys2")
+                .setRetryIntervalMilliseconds(1000)
+                .setRefreshExecutor(retries::add);
+
+        Assert.assertEquals(KEYS2, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals(KEYS2, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals(KEYS2, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals("only the first fetch tries discovery inline", 1, discoveryCount.get());
+        Assert.assertTrue("no retry during the backoff", retries.isEmpty());
+        Assert.assertEquals(1, keySource.getConsecutiveFailures());
+
+        Thread.sleep(1100);
+        discoveredIssuer = issuer;
+        Assert.assertEquals("fallback used while discovery is retried", KEYS2, keySource.fetchKeys(null, null).getBody());
+        Assert.assertEquals(1, discoveryCount.get());
+        Assert.assertEquals(1, retries.size());
+
+        retries.get(0).run();
+        Assert.assertEquals(2, discoveryCount.get());
+        Assert.assertEquals(0, keySource.getConsecutiveFailures());
+        Assert.assertEquals(KEYS1, keySource.fetchKeys(null, null).getBody());
+        keySource.close();
+    }
+
+    @Test
+    public void testRetryDelayBacksOffExponentially() {
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer).setRetryIntervalMilliseconds(1000)
+                .setMaxRetryIntervalMilliseconds(5000);
+        Assert.assertEquals(1000, keySource.getRetryDelay(1));
+        Assert.assertEquals(4000, keySource.getRetryDelay(3));
+        Assert.assertEquals(5000, keySource.getRetryDelay(40));
+    }
+
+    @Test
+    public void testClientOfTheSourceShutDownOnClose() throws Exception {
+        AppleHttpClient client = new AppleHttpClient(issuer + DiscoveryKeySource.WELL_KNOWN_PATH);
+        try {
+            DiscoveryKeySource withClient = new DiscoveryKeySource(issuer, client, null);
+            Assert.assertEquals(KEYS1, withClient.fetchKeys(null, null).getBody());
+            jwksPath = "/keys2";
+            withClient.refreshDiscovery();
+            Assert.assertEquals("changed jwks_uri fetched through the same client", KEYS2,
+                    withClient.fetchKeys(null, null).getBody());
+            withClient.close();
+            Assert.assertFalse(client.isShutdown());
+        } finally {
+            client.shutdown();
+        }
+
+        DiscoveryKeySource keySource = new DiscoveryKeySource(issuer);
+        Assert.assertEquals(KEYS2, keySource.fetchKeys(null, null).getBody());
+        keySource.close();
+        try {
+            keySource.fetchKeys(null, null);
+            Assert.fail();
+        } catch (IOException | IllegalStateException e) {
+            // The client created by the source is shut down.
+        }
+    }
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.ebayopensource.apple.idtoken.keysource;
+
+import org.ebayopensource.apple.idtoken.entities.AppleJWKSet;
+import org.ebayopensource.apple.idtoken.httpclient.AppleKeysResponse;
+import org.ebayopensource.apple.idtoken.util.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class KeySourceTest {
+
+    @Test
+    public void testInMemoryKeySource() throws Exception {
+        String keys = TestUtils.createJWKSet(TestUtils.generateRSAKeyPair().getPublic(), "kid1");
+        InMemoryKeySource keySource = new InMemoryKeySource(keys);
+
+        Assert.assertEquals(keys, keySource.fetchKeys(null, null).getBody());
+        AppleJWKSet jwkSet = keySource.fetchJWKSet();
+        Assert.assertEquals("kid1", jwkSet.getKeys().get(0).getKid());
+        Assert.assertEquals("kid1", new InMemoryKeySource(jwkSet).fetchJWKSet().getKeys().get(0).getKid());
+    }
+
+    @Test
+    public void testClasspathKeySource() throws Exception {
+        AppleJWKSet jwkSet = new ClasspathKeySource("apple-keys-test.json").fetchJWKSet();
+
+        Assert.assertEquals(1, jwkSet.getKeys().size());
+        Assert.assertEquals("TESTKID1", jwkSet.getKeys().get(0).getKid());
+        Assert.assertEquals("AQAB", jwkSet.getKeys().get(0).getExponent());
+
+        try {
+            new ClasspathKeySource("missing-apple-keys.json").fetchKeys(null, null);
+            Assert.fail();
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFileKeySourceNotModifiedUntilFileChanges() throws Exception {
+        Path path = Files.createTempFile("apple-keys", ".json");
+        try {
+            Files.write(path, TestUtils.createJWKSet(TestUtils.generateRSAKeyPair().getPublic(), "kid1")
+                    .getBytes(Charset.forName("UTF-8")));
+            FileKeySource keySource = new FileKeySource(path);
+
+            AppleKeysResponse first = keySource.fetchKeys(null, null);
+            Assert.assertFalse(first.isNotModified());
+            Assert.assertTrue(first.getBody().contains("kid1"));
+            Assert.assertTrue(keySource.fetchKeys(first.getETag(), null).isNotModified());
+
+            Files.write(path, TestUtils.createJWKSet(TestUtils.generateRSAKeyPair().getPublic(), "kid22")
+                    .getBytes(Charset.forName("UTF-8")));
+            AppleKeysResponse second = keySource.fetchKeys(first.getETag(), null);
+            Assert.assertFalse(second.isNotModified());
+            Assert.assertTrue(second.getBody().contains("kid22"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
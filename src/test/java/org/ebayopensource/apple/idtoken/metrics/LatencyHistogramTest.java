@@ -0,0 +1,60 @@
+package org.ebayopensource.apple.idtoken.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/************************************************************************
+ Copyright 2020 eBay Inc.
+ Author/Developer(s): Chetan Hibare; Dhairyasheel Desai; Swanand Abhyankar
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ https://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ **************************************************************************/
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testLatenciesFallInTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(40));
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(30));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(50, snapshot.getPercentileMicros(50));
+        Assert.assertEquals(50, snapshot.getPercentileMicros(90));
+        Assert.assertEquals(2500, snapshot.getPercentileMicros(99));
+        Assert.assertEquals(Long.MAX_VALUE, snapshot.getPercentileMicros(100));
+        Assert.assertEquals(1, snapshot.getBucketCounts()[snapshot.getBucketCounts().length - 1]);
+        Assert.assertEquals(snapshot.getBucketUpperBoundsMicros().length + 1, snapshot.getBucketCounts().length);
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getPercentileMicros(99));
+        Assert.assertEquals(0, snapshot.getMeanMicros(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentileRejected() {
+        new LatencyHistogram().snapshot().getPercentileMicros(101);
+    }
+}
@@ -1,13 +1,18 @@
 package org.ebayopensource.apple.idtoken.util;
 
+import com.google.gson.Gson;
 import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 
+import java.math.BigInteger;
 import java.security.*;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /************************************************************************
@@ -104,10 +109,95 @@ public class TestUtils {
         return builder.compact();
     }
 
+    public static String createJWTWithHeaderAndFakeSignature(String kid, String alg, long ttlMillis) {
+
+        String header = StringUtils.isEmpty(kid)
+                ? "{\"alg\":\""+alg+"\"}"
+                : "{\"kid\":\""+kid+"\",\"alg\":\""+alg+"\"}";
+
+        return Base64.encodeBase64URLSafeString(header.getBytes())
+                + "." + Base64.encodeBase64URLSafeString(generatePayload(defaultIssuer, defaultId, defaultNonce, ttlMillis).getBytes())
+                + "." + fakeSignature;
+    }
+
+    public static KeyPair generateRSAKeyPair() {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            return keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String createJWKSet(PublicKey publicKey, String kid) {
+        return "{\"keys\":[" + createJWK(publicKey, kid) + "]}";
+    }
+
+    public static String createJWK(PublicKey publicKey, String kid) {
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
+        return "{\"kty\":\"RSA\",\"kid\":\"" + kid + "\",\"use\":\"sig\",\"alg\":\"RS256\","
+                + "\"n\":\"" + Base64.encodeBase64URLSafeString(toUnsignedBytes(rsaPublicKey.getModulus())) + "\","
+                + "\"e\":\"" + Base64.encodeBase64URLSafeString(toUnsignedBytes(rsaPublicKey.getPublicExponent())) + "\"}";
+    }
+
+    private static byte[] toUnsignedBytes(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    public static String createSignedJWT(PrivateKey privateKey, String kid, String aud, String nonce, long ttlMillis) {
+        return createSignedJWT(privateKey, kid, defaultIssuer, aud, nonce, ttlMillis);
+    }
+
+    public static String createSignedJWT(PrivateKey privateKey, String kid, String issuer, String aud, String nonce,
+                                         long ttlMillis) {
+
+        if(StringUtils.isEmpty(aud)){
+            aud = defaultId;
+        }
+
+        if(StringUtils.isEmpty(nonce)){
+            nonce = defaultNonce;
+        }
+
+        Map<String, Object> headerParams = new HashMap<>();
+        headerParams.put("kid", kid);
+        headerParams.put("alg", "RS256");
+
+        JwtBuilder builder = Jwts.builder()
+                .setHeader(headerParams)
+                .setClaims(null)
+                .setPayload(generatePayload(issuer, aud, nonce, ttlMillis))
+                .signWith(SignatureAlgorithm.RS256, privateKey);
+
+        //Builds the JWT and serializes it to a compact, URL-safe string
+        return builder.compact();
+    }
+
+    /** Creates a token whose aud claim is an array of the given audiences, as OpenID Connect allows. */
+    public static String createSignedJWTWithAudiences(PrivateKey privateKey, String kid, String issuer,
+                                                      List<String> audiences, long ttlMillis) {
+        Map<String, Object> headerParams = new HashMap<>();
+        headerParams.put("kid", kid);
+        headerParams.put("alg", "RS256");
+
+        return Jwts.builder()
+                .setHeader(headerParams)
+                .setClaims(null)
+                .setPayload(generatePayloadWithAudience(issuer, new Gson().toJson(audiences), defaultNonce, ttlMillis))
+                .signWith(SignatureAlgorithm.RS256, privateKey)
+                .compact();
+    }
+
     private static String generatePayload(String iss, String clientId, String nonce, long time) {
+        return generatePayloadWithAudience(iss, "\""+clientId+"\"", nonce, time);
+    }
+
+    private static String generatePayloadWithAudience(String iss, String audJson, String nonce, long time) {
         return "{\n" +
                 "  \"iss\": \""+iss+"\",\n" +
-                "  \"aud\": \""+clientId+"\",\n" +
+                "  \"aud\": "+audJson+",\n" +
                 "  \"exp\": "+time+",\n" +
                 "  \"iat\": 1574380475,\n" +
                 "  \"sub\": \"002454.3bffcb36c6a948a5010083b8da5f5f31.1123\",\n" +